@@ -0,0 +1,108 @@
+package tech.wetech.flexmodel.codegen;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.wetech.flexmodel.session.SessionFactory;
+import tech.wetech.flexmodel.sql.JdbcDataSourceProvider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput and latency of {@link CodeGenerationService#generateCode(String, String, Map)} per template and schema
+ * size, on the in-memory SQLite setup of the integration tests. Run with {@code mvn -Pbenchmark verify}, the GC
+ * profiler reports the allocation rate.
+ *
+ * @author cjbi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CodeGenerationBenchmark {
+
+  private static final String SCHEMA_NAME = "system";
+
+  @Param({"hello_world", "java_sample", "java_sdk", "java_springboot_mybatis_sample", "javascript_sdk",
+    "node_nestjs_typeorm_sample", "python_sdk", "typescript_sdk"})
+  private String templateName;
+
+  @Param({"10", "100", "1000"})
+  private int entityCount;
+
+  /**
+   * {@code sequential} processes files on the calling thread, {@code parallel} on one platform worker per processor
+   * and {@code virtual} on virtual threads with rendering bounded by the same number of workers. Compare
+   * {@code virtual} with {@code parallel} for the effect of virtual threads on the file I/O alone.
+   */
+  @Param({"sequential", "parallel", "virtual"})
+  private String executionMode;
+
+  private HikariDataSource dataSource;
+  private CodeGenerationService codeGenerationService;
+  private Path outputRoot;
+  private final Map<String, Object> variables = new HashMap<>();
+
+  @Setup
+  public void setup() throws Exception {
+    dataSource = new HikariDataSource();
+    dataSource.setJdbcUrl("jdbc:sqlite:file:benchmark" + entityCount + "?mode=memory&cache=shared");
+    SessionFactory sessionFactory = SessionFactory.builder()
+      .setDefaultDataSourceProvider(new JdbcDataSourceProvider(SCHEMA_NAME, dataSource))
+      .build();
+    SyntheticSchema.builder()
+      .setEntityCount(entityCount)
+      .setEnumCount(Math.max(1, entityCount / 10))
+      .build()
+      .load(sessionFactory, SCHEMA_NAME);
+
+    // Outputs are deleted right after they were measured, so long runs do not fill the disk
+    outputRoot = Files.createTempDirectory("codegen-benchmark");
+    CodeGenerationConfig.Builder config = CodeGenerationConfig.builder()
+      .setOutputRoot(outputRoot)
+      .setOutputTtl(Duration.ZERO)
+      .setOutputCleanupInterval(Duration.ofSeconds(1));
+    if (!executionMode.equals("sequential")) {
+      config.setParallelism(Runtime.getRuntime().availableProcessors())
+        .setVirtualThreads(executionMode.equals("virtual"));
+    }
+    codeGenerationService = new CodeGenerationService(sessionFactory, config.build());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    codeGenerationService.close();
+    dataSource.close();
+    try (Stream<Path> stream = Files.walk(outputRoot)) {
+      for (Path path : stream.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  @Benchmark
+  public Path generateCode() {
+    return codeGenerationService.generateCode(SCHEMA_NAME, templateName, variables);
+  }
+
+}
@@ -0,0 +1,76 @@
+package tech.wetech.flexmodel.codegen;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.wetech.flexmodel.session.SessionFactory;
+import tech.wetech.flexmodel.sql.JdbcDataSourceProvider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a model snapshot lookup that hits the cache compared to one that rebuilds the snapshot. Run with
+ * {@code mvn -Pbenchmark verify -Djmh.include=ModelSnapshotBenchmark}.
+ *
+ * @author cjbi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelSnapshotBenchmark {
+
+  private static final String SCHEMA_NAME = "system";
+  private static final String PACKAGE_NAME = "com.example";
+
+  @Param({"10", "100", "1000"})
+  private int entityCount;
+
+  private HikariDataSource dataSource;
+  private ModelSnapshotCache modelSnapshotCache;
+
+  @Setup
+  public void setup() throws Exception {
+    dataSource = new HikariDataSource();
+    dataSource.setJdbcUrl("jdbc:sqlite:file:snapshot" + entityCount + "?mode=memory&cache=shared");
+    SessionFactory sessionFactory = SessionFactory.builder()
+      .setDefaultDataSourceProvider(new JdbcDataSourceProvider(SCHEMA_NAME, dataSource))
+      .build();
+    SyntheticSchema.builder()
+      .setEntityCount(entityCount)
+      .setEnumCount(Math.max(1, entityCount / 10))
+      .build()
+      .load(sessionFactory, SCHEMA_NAME);
+    modelSnapshotCache = new ModelSnapshotCache(sessionFactory);
+    modelSnapshotCache.getSnapshot(SCHEMA_NAME, PACKAGE_NAME);
+  }
+
+  @TearDown
+  public void tearDown() {
+    dataSource.close();
+  }
+
+  @Benchmark
+  public ModelSnapshot cacheHit() {
+    return modelSnapshotCache.getSnapshot(SCHEMA_NAME, PACKAGE_NAME);
+  }
+
+  @Benchmark
+  public ModelSnapshot rebuild() {
+    modelSnapshotCache.invalidate(SCHEMA_NAME);
+    return modelSnapshotCache.getSnapshot(SCHEMA_NAME, PACKAGE_NAME);
+  }
+
+}
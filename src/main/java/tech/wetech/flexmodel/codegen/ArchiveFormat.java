@@ -0,0 +1,11 @@
+package tech.wetech.flexmodel.codegen;
+
+/**
+ * Archive formats generated code can be streamed as
+ *
+ * @author cjbi
+ */
+public enum ArchiveFormat {
+  ZIP,
+  TAR_GZ
+}
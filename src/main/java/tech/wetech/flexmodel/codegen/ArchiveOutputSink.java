@@ -0,0 +1,112 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams generated files into a ZIP or tar.gz archive.
+ * <p>
+ * Files are rendered into a buffer by the calling worker and appended to the archive one at a time, so entries are
+ * sent to the stream as soon as they are generated. The underlying stream is left open.
+ *
+ * @author cjbi
+ */
+class ArchiveOutputSink implements OutputSink {
+
+  private final ArchiveFormat format;
+  private final ZipOutputStream zip;
+  private final GZIPOutputStream gzip;
+  private final TarArchiveWriter tar;
+  private final Set<String> directories = ConcurrentHashMap.newKeySet();
+  private final long modifiedTime = System.currentTimeMillis();
+  /**
+   * A lock rather than a monitor, virtual threads waiting for the archive do not pin their carrier
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  ArchiveOutputSink(OutputStream out, ArchiveFormat format) throws IOException {
+    this.format = format;
+    if (format == ArchiveFormat.ZIP) {
+      this.zip = new ZipOutputStream(out);
+      this.gzip = null;
+      this.tar = null;
+    } else {
+      this.zip = null;
+      this.gzip = new GZIPOutputStream(out);
+      this.tar = new TarArchiveWriter(gzip);
+    }
+  }
+
+  @Override
+  public void createDirectory(String path) throws IOException {
+    if (path.isEmpty() || !directories.add(path)) {
+      return;
+    }
+    lock.lock();
+    try {
+      if (format == ArchiveFormat.ZIP) {
+        ZipEntry entry = new ZipEntry(path + "/");
+        entry.setLastModifiedTime(FileTime.fromMillis(modifiedTime));
+        zip.putNextEntry(entry);
+        zip.closeEntry();
+      } else {
+        tar.writeDirectory(path, modifiedTime);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void writeFile(String path, ContentWriter content) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    content.writeTo(buffer);
+    lock.lock();
+    try {
+      if (format == ArchiveFormat.ZIP) {
+        ZipEntry entry = new ZipEntry(path);
+        entry.setLastModifiedTime(FileTime.fromMillis(modifiedTime));
+        zip.putNextEntry(entry);
+        buffer.writeTo(zip);
+        zip.closeEntry();
+        zip.flush();
+      } else {
+        tar.writeFile(path, buffer.toByteArray(), modifiedTime);
+        gzip.flush();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void finish() throws IOException {
+    lock.lock();
+    try {
+      if (format == ArchiveFormat.ZIP) {
+        zip.finish();
+        zip.flush();
+      } else {
+        tar.finish();
+        gzip.finish();
+        gzip.flush();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return format + " archive";
+  }
+
+}
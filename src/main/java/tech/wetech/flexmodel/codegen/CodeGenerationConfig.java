@@ -0,0 +1,371 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration of {@link CodeGenerationService}
+ *
+ * @author cjbi
+ */
+public class CodeGenerationConfig {
+
+  private final int parallelism;
+
+  private final boolean virtualThreads;
+
+  private final boolean incremental;
+
+  private final Path outputRoot;
+
+  private final int maxConcurrentGenerations;
+
+  private final int maxQueuedGenerations;
+
+  private final Duration admissionTimeout;
+
+  private final int resultCacheSize;
+
+  private final Duration resultCacheTtl;
+
+  private final Duration outputTtl;
+
+  private final long outputQuotaBytes;
+
+  private final Duration outputCleanupInterval;
+
+  private final GenerationMetrics metrics;
+
+  private final boolean watchTemplates;
+
+  private final List<Path> templateRoots;
+
+  private final boolean classpathTemplates;
+
+  private final boolean staticCompilation;
+
+  private final Map<String, Boolean> templateStaticCompilation;
+
+  private CodeGenerationConfig(Builder builder) {
+    this.parallelism = builder.parallelism;
+    this.virtualThreads = builder.virtualThreads;
+    this.incremental = builder.incremental;
+    this.outputRoot = builder.outputRoot != null
+      ? builder.outputRoot
+      : Paths.get(System.getProperty("java.io.tmpdir"), "codegen");
+    this.maxConcurrentGenerations = builder.maxConcurrentGenerations;
+    this.maxQueuedGenerations = builder.maxQueuedGenerations;
+    this.admissionTimeout = builder.admissionTimeout;
+    this.resultCacheSize = builder.resultCacheSize;
+    this.resultCacheTtl = builder.resultCacheTtl;
+    this.outputTtl = builder.outputTtl;
+    this.outputQuotaBytes = builder.outputQuotaBytes;
+    this.outputCleanupInterval = builder.outputCleanupInterval;
+    this.metrics = builder.metrics;
+    this.watchTemplates = builder.watchTemplates;
+    this.templateRoots = List.copyOf(builder.templateRoots);
+    this.classpathTemplates = builder.classpathTemplates;
+    this.staticCompilation = builder.staticCompilation;
+    this.templateStaticCompilation = Map.copyOf(builder.templateStaticCompilation);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static CodeGenerationConfig defaults() {
+    return builder().build();
+  }
+
+  /**
+   * Number of worker threads used to process template files, 1 means sequential processing
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public boolean isParallel() {
+    return parallelism > 1;
+  }
+
+  /**
+   * Whether template files and models are processed on virtual threads, one per task. Rendering is still bounded
+   * by {@link #getParallelism()} worker threads, only the blocking file I/O scales with the virtual threads.
+   */
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * Whether generation into an existing output directory only regenerates files whose inputs changed
+   */
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  /**
+   * Directory generated code is written below when no target is given, may be on any {@link java.nio.file.FileSystem}.
+   * Each service writes below a locked directory of its own, so services may share the root. Outputs a previous
+   * process left below it are deleted like the outputs of this service.
+   */
+  public Path getOutputRoot() {
+    return outputRoot;
+  }
+
+  /**
+   * Maximum number of generations running at the same time
+   */
+  public int getMaxConcurrentGenerations() {
+    return maxConcurrentGenerations;
+  }
+
+  /**
+   * Maximum number of generations waiting for a slot, further requests are rejected
+   */
+  public int getMaxQueuedGenerations() {
+    return maxQueuedGenerations;
+  }
+
+  /**
+   * How long a generation waits for a slot before it is rejected
+   */
+  public Duration getAdmissionTimeout() {
+    return admissionTimeout;
+  }
+
+  /**
+   * Number of completed generation outputs kept for identical requests, 0 disables the cache
+   */
+  public int getResultCacheSize() {
+    return resultCacheSize;
+  }
+
+  /**
+   * How long a completed generation output is reused for identical requests
+   */
+  public Duration getResultCacheTtl() {
+    return resultCacheTtl;
+  }
+
+  /**
+   * How long an output directory below the output root is kept after its last access
+   */
+  public Duration getOutputTtl() {
+    return outputTtl;
+  }
+
+  /**
+   * Maximum total size in bytes of the output directories below the output root
+   */
+  public long getOutputQuotaBytes() {
+    return outputQuotaBytes;
+  }
+
+  /**
+   * How often expired output directories are deleted
+   */
+  public Duration getOutputCleanupInterval() {
+    return outputCleanupInterval;
+  }
+
+  /**
+   * Receives the timings and output statistics of every generation
+   */
+  public GenerationMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Whether templates in a directory are reloaded when their files change, has no effect for templates in a jar
+   */
+  public boolean isWatchTemplates() {
+    return watchTemplates;
+  }
+
+  /**
+   * Additional template directories, jars or zip files, in order of precedence
+   */
+  public List<Path> getTemplateRoots() {
+    return templateRoots;
+  }
+
+  /**
+   * Whether the templates bundled on the classpath are served, after those of the additional roots
+   */
+  public boolean isClasspathTemplates() {
+    return classpathTemplates;
+  }
+
+  /**
+   * Whether the generators of the template are compiled statically, falling back to dynamic compilation per generator
+   */
+  public boolean isStaticCompilation(String templateName) {
+    return templateStaticCompilation.getOrDefault(templateName, staticCompilation);
+  }
+
+  public static class Builder {
+
+    private int parallelism = 1;
+
+    private boolean virtualThreads;
+
+    private boolean incremental;
+
+    private Path outputRoot;
+
+    private int maxConcurrentGenerations = Runtime.getRuntime().availableProcessors();
+
+    private int maxQueuedGenerations = 100;
+
+    private Duration admissionTimeout = Duration.ofSeconds(60);
+
+    private int resultCacheSize;
+
+    private Duration resultCacheTtl = Duration.ofMinutes(5);
+
+    private Duration outputTtl = Duration.ofHours(24);
+
+    private long outputQuotaBytes = Long.MAX_VALUE;
+
+    private Duration outputCleanupInterval = Duration.ofMinutes(1);
+
+    private GenerationMetrics metrics = GenerationMetrics.NOOP;
+
+    private boolean watchTemplates;
+
+    private final List<Path> templateRoots = new ArrayList<>();
+
+    private boolean classpathTemplates = true;
+
+    private boolean staticCompilation;
+
+    private final Map<String, Boolean> templateStaticCompilation = new HashMap<>();
+
+    public Builder setParallelism(int parallelism) {
+      if (parallelism < 1) {
+        throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+      }
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    public Builder setVirtualThreads(boolean virtualThreads) {
+      this.virtualThreads = virtualThreads;
+      return this;
+    }
+
+    public Builder setIncremental(boolean incremental) {
+      this.incremental = incremental;
+      return this;
+    }
+
+    public Builder setOutputRoot(Path outputRoot) {
+      this.outputRoot = outputRoot;
+      return this;
+    }
+
+    public Builder setMaxConcurrentGenerations(int maxConcurrentGenerations) {
+      if (maxConcurrentGenerations < 1) {
+        throw new IllegalArgumentException("Max concurrent generations must be positive: " + maxConcurrentGenerations);
+      }
+      this.maxConcurrentGenerations = maxConcurrentGenerations;
+      return this;
+    }
+
+    public Builder setMaxQueuedGenerations(int maxQueuedGenerations) {
+      if (maxQueuedGenerations < 0) {
+        throw new IllegalArgumentException("Max queued generations must not be negative: " + maxQueuedGenerations);
+      }
+      this.maxQueuedGenerations = maxQueuedGenerations;
+      return this;
+    }
+
+    public Builder setAdmissionTimeout(Duration admissionTimeout) {
+      this.admissionTimeout = admissionTimeout;
+      return this;
+    }
+
+    public Builder setResultCacheSize(int resultCacheSize) {
+      if (resultCacheSize < 0) {
+        throw new IllegalArgumentException("Result cache size must not be negative: " + resultCacheSize);
+      }
+      this.resultCacheSize = resultCacheSize;
+      return this;
+    }
+
+    public Builder setResultCacheTtl(Duration resultCacheTtl) {
+      this.resultCacheTtl = resultCacheTtl;
+      return this;
+    }
+
+    public Builder setOutputTtl(Duration outputTtl) {
+      this.outputTtl = outputTtl;
+      return this;
+    }
+
+    public Builder setOutputQuotaBytes(long outputQuotaBytes) {
+      if (outputQuotaBytes < 0) {
+        throw new IllegalArgumentException("Output quota must not be negative: " + outputQuotaBytes);
+      }
+      this.outputQuotaBytes = outputQuotaBytes;
+      return this;
+    }
+
+    public Builder setOutputCleanupInterval(Duration outputCleanupInterval) {
+      if (outputCleanupInterval.isNegative() || outputCleanupInterval.isZero()) {
+        throw new IllegalArgumentException("Output cleanup interval must be positive: " + outputCleanupInterval);
+      }
+      this.outputCleanupInterval = outputCleanupInterval;
+      return this;
+    }
+
+    public Builder setMetrics(GenerationMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    public Builder setWatchTemplates(boolean watchTemplates) {
+      this.watchTemplates = watchTemplates;
+      return this;
+    }
+
+    /**
+     * Add a directory, jar or zip file holding one subdirectory per template. In an archive the templates may be
+     * below a {@code templates} directory.
+     */
+    public Builder addTemplateRoot(Path templateRoot) {
+      this.templateRoots.add(templateRoot);
+      return this;
+    }
+
+    public Builder setClasspathTemplates(boolean classpathTemplates) {
+      this.classpathTemplates = classpathTemplates;
+      return this;
+    }
+
+    /**
+     * Compile generators as if annotated with {@code @CompileStatic}, for all templates without their own setting.
+     * Every generator is compiled at runtime on first use. Those that rely on dynamic typing, which includes most
+     * bundled generators, fall back to the dynamic class precompiled at build time, or are compiled dynamically.
+     */
+    public Builder setStaticCompilation(boolean staticCompilation) {
+      this.staticCompilation = staticCompilation;
+      return this;
+    }
+
+    public Builder setStaticCompilation(String templateName, boolean staticCompilation) {
+      this.templateStaticCompilation.put(templateName, staticCompilation);
+      return this;
+    }
+
+    public CodeGenerationConfig build() {
+      return new CodeGenerationConfig(this);
+    }
+  }
+
+}
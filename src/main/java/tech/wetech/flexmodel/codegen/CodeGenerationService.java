@@ -1,259 +1,973 @@
 package tech.wetech.flexmodel.codegen;
 
-import groovy.lang.GroovyClassLoader;
+import org.codehaus.groovy.control.CompilationFailedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tech.wetech.flexmodel.JsonUtils;
-import tech.wetech.flexmodel.model.EntityDefinition;
-import tech.wetech.flexmodel.model.EnumDefinition;
 import tech.wetech.flexmodel.session.SessionFactory;
 
-import java.io.File;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.net.JarURLConnection;
-import java.net.URISyntaxException;
-import java.net.URL;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
-import static tech.wetech.flexmodel.sql.StringHelper.simpleRenderTemplate;
+import static tech.wetech.flexmodel.codegen.GenerationStats.Stopwatch;
+import static tech.wetech.flexmodel.codegen.TemplateIndex.TemplateFile;
+import static tech.wetech.flexmodel.codegen.TemplateIndex.TemplateFileType;
 
 /**
+ * Generates code from the models of a datasource with the bundled and configured templates.
+ * <p>
+ * The service owns worker threads, a cleanup thread, template watchers and opened template archives. Close it
+ * when it is no longer needed, a shutdown hook closes it on JVM exit otherwise.
+ *
  * @author cjbi
  */
-public class CodeGenerationService {
+public class CodeGenerationService implements AutoCloseable {
 
   private static final String TEMPLATE_ROOT = "templates";
 
-  private static FileSystem fs = null;
+  private final GeneratorClassCache generatorClassCache;
 
-  private final GroovyClassLoader loader = new GroovyClassLoader();
+  private final ModelSnapshotCache modelSnapshotCache;
 
-  private final SessionFactory sessionFactory;
+  private final CodeGenerationConfig config;
 
-  private final Map<String, TemplateInfo> templateInfoMap = new HashMap<>();
+  private final ForkJoinPool workerPool;
+
+  /**
+   * Runs file tasks on virtual threads in virtual thread mode, the worker pool then only renders
+   */
+  private final ExecutorService fileExecutor;
+
+  /**
+   * Runs asynchronous requests, on virtual threads in virtual thread mode
+   */
+  private final ExecutorService requestExecutor;
+
+  private final GenerationAdmission admission;
+
+  private final GenerationResultCache resultCache;
+
+  private final OutputStore outputStore;
+
+  private final List<TemplateRoot> templateRoots;
+
+  private final List<TemplateWatcher> templateWatchers;
+
+  /**
+   * Root each template is served from, only the names are discovered up front
+   */
+  private final Map<String, TemplateRoot> templateLocations = new ConcurrentHashMap<>();
+
+  private final Map<String, Optional<TemplateInfo>> templateInfoMap = new ConcurrentHashMap<>();
+
+  private final Map<String, TemplateIndex> templateIndexes = new ConcurrentHashMap<>();
+
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  private final Thread shutdownHook = new Thread(this::close, "codegen-shutdown");
 
   private final Logger log = LoggerFactory.getLogger(CodeGenerationService.class);
 
   public CodeGenerationService(SessionFactory sessionFactory) {
-    this.sessionFactory = sessionFactory;
-    initializeFileSystem();
-    loadTemplates();
-    registerShutdownHook();
-    log.info("Jar package template has been mounted successfully");
+    this(sessionFactory, CodeGenerationConfig.defaults());
   }
 
-  private void initializeFileSystem() {
-    URL resUrl = this.getClass().getClassLoader().getResource(TEMPLATE_ROOT);
-    if (resUrl == null) {
-      throw new IllegalStateException("Resource not found: " + TEMPLATE_ROOT);
-    }
+  public CodeGenerationService(SessionFactory sessionFactory, CodeGenerationConfig config) {
+    this.modelSnapshotCache = new ModelSnapshotCache(sessionFactory);
+    this.config = config;
+    this.generatorClassCache = new GeneratorClassCache(Thread.currentThread().getContextClassLoader(),
+      config::isStaticCompilation);
+    this.workerPool = config.isParallel() || config.isVirtualThreads()
+      ? createWorkerPool(config.getParallelism())
+      : null;
+    this.fileExecutor = config.isVirtualThreads()
+      ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("codegen-file-", 0).factory())
+      : null;
+    this.requestExecutor = config.isVirtualThreads()
+      ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("codegen-request-", 0).factory())
+      : Executors.newCachedThreadPool(Thread.ofPlatform().name("codegen-request-", 0).daemon().factory());
+    this.admission = new GenerationAdmission(config.getMaxConcurrentGenerations(),
+      config.getMaxQueuedGenerations(), config.getAdmissionTimeout());
+    this.resultCache = new GenerationResultCache(config.getResultCacheSize(), config.getResultCacheTtl());
+    this.outputStore = new OutputStore(config.getOutputRoot(), config.getOutputTtl(),
+      config.getOutputQuotaBytes(), config.getOutputCleanupInterval());
+    this.templateRoots = openTemplateRoots(config);
+    discoverTemplates();
+    this.templateWatchers = config.isWatchTemplates() ? watchTemplates() : List.of();
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    log.info("Mounted {} templates from {} template roots", templateLocations.size(), templateRoots.size());
+  }
 
-    try {
-      String protocol = resUrl.getProtocol();
-      if ("file".equalsIgnoreCase(protocol)) {
-        // When debugging in IDE, resources are in local file system, use default file system
-        fs = FileSystems.getDefault();
-      } else if ("jar".equalsIgnoreCase(protocol)) {
-        // In JAR package, need to create new file system
-        JarURLConnection jarCon = (JarURLConnection) resUrl.openConnection();
-        Path jarPath = Paths.get(jarCon.getJarFileURL().toURI());
-        fs = FileSystems.newFileSystem(jarPath, Map.of("create", "false"));
-      } else {
-        throw new IllegalStateException("Unknown resource type: " + protocol);
-      }
-    } catch (URISyntaxException | IOException e) {
-      throw new RuntimeException("Failed to get template path", e);
+  /**
+   * Configured roots come first, so their templates take precedence over bundled templates of the same name
+   */
+  private List<TemplateRoot> openTemplateRoots(CodeGenerationConfig config) {
+    List<TemplateRoot> roots = new ArrayList<>();
+    for (Path location : config.getTemplateRoots()) {
+      roots.add(TemplateRoot.external(location, TEMPLATE_ROOT));
     }
+    if (config.isClasspathTemplates()) {
+      roots.add(TemplateRoot.classpath(this.getClass().getClassLoader(), TEMPLATE_ROOT));
+    }
+    return List.copyOf(roots);
   }
 
-  private void loadTemplates() {
-    try {
-      Path templatePath;
-      if (fs == FileSystems.getDefault()) {
-        // Local file system, use relative path
-        URL resUrl = this.getClass().getClassLoader().getResource(TEMPLATE_ROOT);
-        templatePath = Paths.get(resUrl.toURI());
-      } else {
-        // JAR file system, use absolute path
-        templatePath = fs.getPath("/" + TEMPLATE_ROOT);
+  /**
+   * List the templates of every root. Default variables, template files and generators are loaded on first use.
+   */
+  private void discoverTemplates() {
+    for (TemplateRoot root : templateRoots) {
+      try {
+        for (String templateName : root.listTemplateNames()) {
+          templateLocations.putIfAbsent(templateName, root);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to load template names", e);
       }
+    }
+    log.debug("Discovered {} templates.", templateLocations.size());
+  }
 
-      try (Stream<Path> stream = Files.list(templatePath)) {
-        List<String> templateNames = stream.map(p -> p.getFileName().toString()).toList();
-        preloadTemplates(templateNames);
+  private TemplateRoot locateTemplate(String templateName) {
+    for (TemplateRoot root : templateRoots) {
+      if (root.contains(templateName)) {
+        return root;
       }
-    } catch (IOException | URISyntaxException e) {
-      throw new RuntimeException("Failed to load template names", e);
     }
+    return null;
   }
 
-  private void preloadTemplates(List<String> templateNames) {
-    log.debug("Preloading default variables for all templates...");
-    for (String templateName : templateNames) {
+  private List<TemplateWatcher> watchTemplates() {
+    List<TemplateWatcher> watchers = new ArrayList<>();
+    for (TemplateRoot root : templateRoots) {
+      if (!root.isWatchable()) {
+        log.warn("Template watching is only supported for templates in a directory, not watching: {}", root);
+        continue;
+      }
       try {
-        loadTemplate(templateName);
-        log.debug("Preloaded default variables for template: {}", templateName);
-      } catch (Exception e) {
-        log.debug("No default variables found for template: {}", templateName);
+        watchers.add(new TemplateWatcher(root.getPath(), this::reloadTemplate));
+        log.info("Watching templates for changes: {}", root);
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to watch templates: " + root, e);
       }
     }
-    log.debug("Preloading completed. Cached {} template variables.", templateInfoMap.size());
+    return List.copyOf(watchers);
+  }
+
+  /**
+   * Reload a changed template. Only the default variables, index, compiled generators and cached outputs of this
+   * template are dropped, all other templates stay warm.
+   */
+  private void reloadTemplate(String templateName, Set<Path> changedPaths) {
+    if (changedPaths.stream().anyMatch(path -> path.getFileName().toString().endsWith(".groovy"))) {
+      // Generators of a template share a class loader, drop them together so the old classes can be unloaded
+      generatorClassCache.invalidate(templateName);
+    }
+    resultCache.invalidate(templateName);
+    templateInfoMap.remove(templateName);
+    templateIndexes.remove(templateName);
+    // The template may have been added or removed, or be served from another root now
+    TemplateRoot root = locateTemplate(templateName);
+    TemplateRoot previousRoot = root != null
+      ? templateLocations.put(templateName, root)
+      : templateLocations.remove(templateName);
+    if (previousRoot != root) {
+      generatorClassCache.invalidate(templateName);
+    }
+    log.info("Template {}: {}, changed files: {}", root != null ? "reloaded" : "removed", templateName,
+      changedPaths.size());
   }
 
-  private void registerShutdownHook() {
-    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+  private TemplateIndex getTemplateIndex(String templateName) {
+    TemplateRoot root = templateLocations.get(templateName);
+    if (root == null) {
+      throw new IllegalStateException("Template not found: " + templateName);
+    }
+    return templateIndexes.computeIfAbsent(templateName, name -> {
       try {
-        if (fs != null) {
-          fs.close();
-        }
-      } catch (IOException ignored) {
+        TemplateIndex index = root.buildIndex(name);
+        log.debug("Indexed template: {}, files: {}", name, index.files().size());
+        return index;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
-    }));
+    });
   }
 
-  public Path getTemplatePath(String templateName) {
-    if (fs == FileSystems.getDefault()) {
-      // Local file system, use relative path
+  private ForkJoinPool createWorkerPool(int parallelism) {
+    return new ForkJoinPool(parallelism, pool -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("codegen-worker-" + thread.getPoolIndex());
+      return thread;
+    }, null, false);
+  }
+
+  /**
+   * Stop the threads of the service and close the template roots. Generations still running are interrupted,
+   * output directories already handed out are kept. Closing again has no effect.
+   */
+  @Override
+  public void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    if (Thread.currentThread() != shutdownHook) {
       try {
-        URL resUrl = this.getClass().getClassLoader().getResource(TEMPLATE_ROOT + "/" + templateName);
-        if (resUrl == null) {
-          throw new IllegalStateException("Template not found: " + templateName);
-        }
-        return Paths.get(resUrl.toURI());
-      } catch (URISyntaxException e) {
-        throw new RuntimeException("Failed to get template path: " + templateName, e);
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException ignored) {
+        // The JVM is already shutting down
+      }
+    }
+    if (workerPool != null) {
+      workerPool.shutdownNow();
+    }
+    if (fileExecutor != null) {
+      fileExecutor.shutdownNow();
+    }
+    requestExecutor.shutdownNow();
+    outputStore.close();
+    templateWatchers.forEach(TemplateWatcher::close);
+    for (TemplateRoot root : templateRoots) {
+      try {
+        root.close();
+      } catch (IOException ignored) {
       }
-    } else {
-      // JAR file system, use absolute path
-      return fs.getPath("/" + TEMPLATE_ROOT + "/" + templateName);
     }
   }
 
+  public Path getTemplatePath(String templateName) {
+    TemplateRoot root = templateLocations.get(templateName);
+    if (root == null) {
+      throw new IllegalStateException("Template not found: " + templateName);
+    }
+    return root.resolve(templateName);
+  }
 
+  /**
+   * Templates that declare default variables, their variables are loaded on the first call
+   */
   public List<TemplateInfo> getTemplates() {
-    return templateInfoMap.values().stream()
+    return templateLocations.keySet().stream()
+      .sorted()
+      .map(this::getTemplateInfo)
+      .flatMap(Optional::stream)
       .toList();
   }
 
+  private Optional<TemplateInfo> getTemplateInfo(String templateName) {
+    if (!templateLocations.containsKey(templateName)) {
+      return Optional.empty();
+    }
+    return templateInfoMap.computeIfAbsent(templateName, this::loadTemplate);
+  }
+
   /**
    * Generate code to temporary directory based on datasource and modelName, return root path.
+   * Identical concurrent requests share one generation and its directory, also with the result cache disabled.
+   * With the result cache enabled identical requests against an unchanged schema return the same directory too,
+   * unless the generation failed for some models. Callers must not modify a shared directory. The directory is
+   * deleted once it was not requested for {@link CodeGenerationConfig#getOutputTtl()}, or earlier when the
+   * output quota is exceeded.
    */
   public Path generateCode(String datasourceName, String templateName, Map<String, Object> variables) {
-    long startTime = System.currentTimeMillis();
-    log.debug("Starting code generation - datasource: {}, template: {}", datasourceName, templateName);
+    GenerationStats stats = new GenerationStats();
+    Map<String, Object> mergedVariables = mergeVariables(templateName, variables, stats);
+    ModelSnapshot snapshot = getModelSnapshot(datasourceName, mergedVariables, stats);
+    GenerationResultCache.Key key = new GenerationResultCache.Key(datasourceName, templateName,
+      Hashing.sha256(mergedVariables), snapshot.getSchemaVersion());
+    Path targetPath = resultCache.get(key, () -> generateToOutputStore(datasourceName, templateName, mergedVariables,
+      snapshot, stats, GenerationProgress.untracked()));
+    outputStore.touch(targetPath);
+    return targetPath;
+  }
+
+  /**
+   * Generate code to a new temporary directory and report the time spent per phase and generator. Unlike
+   * {@link #generateCode(String, String, Map)} the generation always runs, so the report describes this request.
+   */
+  public GenerationResult generateCodeWithReport(String datasourceName, String templateName,
+                                                 Map<String, Object> variables) {
+    GenerationStats stats = new GenerationStats();
+    Map<String, Object> mergedVariables = mergeVariables(templateName, variables, stats);
+    ModelSnapshot snapshot = getModelSnapshot(datasourceName, mergedVariables, stats);
+    return generateToOutputStore(datasourceName, templateName, mergedVariables, snapshot, stats,
+      GenerationProgress.untracked());
+  }
+
+  /**
+   * Generate code to a new temporary directory without blocking the caller. The listener receives the share of
+   * files and models done. Cancelling the future stops the generation before its next file or model, and the
+   * partial output is deleted: the directory is only handed out once the generation completed. Like
+   * {@link #generateCodeWithReport(String, String, Map)} the generation always runs.
+   */
+  public CompletableFuture<GenerationResult> generateCodeAsync(String datasourceName, String templateName,
+                                                               Map<String, Object> variables,
+                                                               GenerationProgressListener listener) {
+    CompletableFuture<GenerationResult> future = new CompletableFuture<>();
+    GenerationProgress progress = new GenerationProgress(listener, future::isCancelled);
+    requestExecutor.execute(() -> {
+      try {
+        progress.checkCancelled();
+        GenerationStats stats = new GenerationStats();
+        Map<String, Object> mergedVariables = mergeVariables(templateName, variables, stats);
+        ModelSnapshot snapshot = getModelSnapshot(datasourceName, mergedVariables, stats);
+        GenerationResult result = generateToOutputStore(datasourceName, templateName, mergedVariables, snapshot,
+          stats, progress);
+        if (!future.complete(result)) {
+          // Cancelled after the last unit, nobody receives the output
+          outputStore.discard(result.path());
+        }
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Stream the generated files instead of writing them. The publisher is cold: every subscriber starts a
+   * generation of its own, whose files are published as they are generated. A subscriber that requests slowly
+   * holds back the generation, so memory stays bounded whatever the schema size. While it holds back, the
+   * generation keeps its threads, including worker pool threads when the parallelism is above one, so subscribers
+   * must cancel rather than just stop requesting. Cancelling the subscription stops the generation before its next
+   * file or model. Failures of single models are logged and skipped, as in
+   * {@link #generateCode(String, String, Map)}, other failures end the stream with an error.
+   */
+  public Flow.Publisher<GeneratedFile> generateCodeStream(String datasourceName, String templateName,
+                                                          Map<String, Object> variables) {
+    return generateCodeStream(datasourceName, templateName, variables, GenerationProgressListener.NONE);
+  }
+
+  /**
+   * Stream the generated files, the listener of each subscriber's generation receives the share of files and
+   * models done
+   */
+  public Flow.Publisher<GeneratedFile> generateCodeStream(String datasourceName, String templateName,
+                                                          Map<String, Object> variables,
+                                                          GenerationProgressListener listener) {
+    return subscriber -> {
+      SubmissionPublisher<GeneratedFile> publisher = new SubmissionPublisher<>(requestExecutor,
+        Flow.defaultBufferSize());
+      publisher.subscribe(subscriber);
+      GenerationProgress progress = new GenerationProgress(listener, () -> publisher.getNumberOfSubscribers() == 0);
+      requestExecutor.execute(() -> {
+        try {
+          GenerationStats stats = new GenerationStats();
+          Map<String, Object> mergedVariables = mergeVariables(templateName, variables, stats);
+          ModelSnapshot snapshot = getModelSnapshot(datasourceName, mergedVariables, stats);
+          generate(datasourceName, templateName, mergedVariables, snapshot,
+            new PublishingOutputSink(publisher, datasourceName, templateName), null, stats, progress);
+          publisher.close();
+        } catch (Throwable e) {
+          publisher.closeExceptionally(e);
+        }
+      });
+    };
+  }
+
+  private GenerationResult generateToOutputStore(String datasourceName, String templateName,
+                                                 Map<String, Object> mergedVariables, ModelSnapshot snapshot,
+                                                 GenerationStats stats, GenerationProgress progress) {
+    Path directory = outputStore.newDirectory();
+    GenerationReport report;
+    try {
+      report = generate(datasourceName, templateName, mergedVariables, snapshot, new DirectoryOutputSink(directory),
+        null, stats, progress);
+    } catch (RuntimeException e) {
+      outputStore.discard(directory);
+      throw e;
+    }
+    outputStore.complete(directory);
+    return new GenerationResult(directory, report);
+  }
+
+  /**
+   * Generate code into the given directory, return root path. The directory may belong to any file system,
+   * e.g. an in-memory one for previews, though generators overriding {@code generate} still use a temporary
+   * directory on the local disk. In incremental mode only the files whose model, template file or
+   * variables changed since the last generation into this directory are generated again, a model also counts as
+   * changed when a model it references changed. Incremental mode keeps its manifest in a hidden file next to the
+   * directory.
+   */
+  public Path generateCode(String datasourceName, String templateName, Map<String, Object> variables, Path targetPath) {
+    GenerationStats stats = new GenerationStats();
+    Map<String, Object> mergedVariables = mergeVariables(templateName, variables, stats);
+    ModelSnapshot snapshot = getModelSnapshot(datasourceName, mergedVariables, stats);
+    generate(datasourceName, templateName, mergedVariables, snapshot, new DirectoryOutputSink(targetPath), targetPath,
+      stats, GenerationProgress.untracked());
+    return targetPath;
+  }
 
-    List<File> outputFiles = new ArrayList<>();
+  /**
+   * Generate code straight into an archive written to the given stream, without an intermediate directory.
+   * Generators overriding {@code generate} are the exception, they write into a temporary directory first.
+   * The stream is not closed.
+   */
+  public void generateCode(String datasourceName, String templateName, Map<String, Object> variables,
+                           OutputStream out, ArchiveFormat format) {
+    GenerationStats stats = new GenerationStats();
+    Map<String, Object> mergedVariables = mergeVariables(templateName, variables, stats);
+    ModelSnapshot snapshot = getModelSnapshot(datasourceName, mergedVariables, stats);
     try {
-      // Merge with default variables from .flexmodel/variables.json
-      Map<String, Object> mergedVariables = mergeWithDefaultVariables(templateName, variables);
+      generate(datasourceName, templateName, mergedVariables, snapshot, new ArchiveOutputSink(out, format), null,
+        stats, GenerationProgress.untracked());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 
-      GenerationContext ctx = buildContext(datasourceName, mergedVariables);
-      java.nio.file.Path targetPath = Paths.get(System.getProperty("java.io.tmpdir"), "codegen", "" + System.currentTimeMillis());
-      Path templateDir = getTemplatePath(templateName);
-      outputFiles(loader, ctx, templateDir,
-        templateDir.toString(), targetPath.toString(), outputFiles);
+  private Map<String, Object> mergeVariables(String templateName, Map<String, Object> variables,
+                                             GenerationStats stats) {
+    Stopwatch stopwatch = Stopwatch.start();
+    Map<String, Object> mergedVariables = mergeWithDefaultVariables(templateName, variables);
+    stats.record(GenerationStats.MERGE, null, stopwatch);
+    return mergedVariables;
+  }
 
-      long endTime = System.currentTimeMillis();
-      long duration = endTime - startTime;
-      log.debug("Code generation completed - duration: {}ms, files generated: {}, output path: {}",
-        duration, outputFiles.size(), targetPath);
+  private ModelSnapshot getModelSnapshot(String datasourceName, Map<String, Object> mergedVariables,
+                                         GenerationStats stats) {
+    Stopwatch stopwatch = Stopwatch.start();
+    String packageName = mergedVariables.getOrDefault("packageName", "com.example").toString();
+    ModelSnapshot snapshot = modelSnapshotCache.getSnapshot(datasourceName, packageName);
+    stats.record(GenerationStats.SNAPSHOT, null, stopwatch);
+    return snapshot;
+  }
+
+  /**
+   * @param mergedVariables user variables merged with the template defaults
+   * @param incrementalRoot output directory to generate incrementally into, {@code null} to generate everything
+   */
+  private GenerationReport generate(String datasourceName, String templateName, Map<String, Object> mergedVariables,
+                                    ModelSnapshot snapshot, OutputSink sink, Path incrementalRoot,
+                                    GenerationStats stats, GenerationProgress progress) {
+    Stopwatch stopwatch = Stopwatch.start();
+    try (GenerationAdmission.Permit ignored = admission.acquire()) {
+      stats.record(GenerationStats.ADMISSION, null, stopwatch);
+      return generateAdmitted(datasourceName, templateName, mergedVariables, snapshot, sink, incrementalRoot, stats,
+        progress);
+    }
+  }
+
+  private GenerationReport generateAdmitted(String datasourceName, String templateName,
+                                            Map<String, Object> mergedVariables, ModelSnapshot snapshot,
+                                            OutputSink sink, Path incrementalRoot, GenerationStats stats,
+                                            GenerationProgress progress) {
+    long startTime = System.currentTimeMillis();
+    log.debug("Starting code generation - datasource: {}, template: {}", datasourceName, templateName);
+    GenerationEvents.GenerationEvent event = new GenerationEvents.GenerationEvent();
+    event.begin();
+    // With virtual threads the file tasks only do the I/O, rendering is handed to the worker pool
+    CountingOutputSink countingSink = new CountingOutputSink(fileExecutor != null
+      ? new RenderingOutputSink(sink, workerPool, stats)
+      : sink);
+
+    try {
+      progress.checkCancelled();
+      Stopwatch stopwatch = Stopwatch.start();
+      GenerationEvents.BuildContextEvent contextEvent = new GenerationEvents.BuildContextEvent();
+      contextEvent.begin();
+      GenerationContext ctx = buildContext(datasourceName, mergedVariables, snapshot);
+      if (contextEvent.shouldCommit()) {
+        contextEvent.template = templateName;
+        contextEvent.datasource = datasourceName;
+        contextEvent.modelCount = ctx.getModelClassList().size();
+        contextEvent.commit();
+      }
+      stats.record(GenerationStats.BUILD_CONTEXT, null, stopwatch);
+      // The walk covers the index lookup and the directories, it is recorded once they are created
+      Stopwatch walkStopwatch = Stopwatch.start();
+      TemplateIndex index = getTemplateIndex(templateName);
+      GenerationRun run = new GenerationRun(templateName, ctx, snapshot, countingSink, stats, progress);
+      if (config.isIncremental() && incrementalRoot != null) {
+        run.enableIncremental(incrementalRoot, GenerationManifest.load(incrementalRoot));
+      }
+      List<String> outputFiles = outputFiles(run, index, walkStopwatch);
+      countingSink.finish();
+      if (run.isIncremental()) {
+        run.finishIncremental();
+      }
 
-      return targetPath;
+      GenerationReport report = stats.toReport(datasourceName, templateName, countingSink, run.getFailures());
+      log.debug("Code generation completed - duration: {}ms, files generated: {}, bytes written: {}, output: {}",
+        report.wallTime().toMillis(), outputFiles.size(), report.bytesWritten(), sink);
+      if (!report.failures().isEmpty()) {
+        log.warn("Code generation completed with {} failed models - template: {}",
+          report.failures().size(), templateName);
+      }
+      publishMetrics(report);
+      return report;
     } catch (Exception e) {
+      event.failed = true;
+      if (progress.isCancelled()) {
+        // Tasks may have wrapped the cancellation, report it as such
+        log.info("Code generation cancelled - datasource: {}, template: {}", datasourceName, templateName);
+        config.getMetrics().increment("codegen.generations", 1,
+          Map.of("datasource", datasourceName, "template", templateName, "outcome", "cancelled"));
+        throw new CancellationException("Code generation cancelled");
+      }
       long endTime = System.currentTimeMillis();
       long duration = endTime - startTime;
       log.error("Code generation failed - duration: {}ms, datasource: {}, template: {}",
         duration, datasourceName, templateName, e);
+      config.getMetrics().increment("codegen.generations", 1,
+        Map.of("datasource", datasourceName, "template", templateName, "outcome", "error"));
       throw new RuntimeException(e);
+    } finally {
+      if (event.shouldCommit()) {
+        event.template = templateName;
+        event.datasource = datasourceName;
+        event.modelCount = snapshot.getModelClasses().size();
+        event.filesWritten = countingSink.getFiles();
+        event.bytesWritten = countingSink.getBytes();
+        event.commit();
+      }
     }
   }
 
-  private void outputFiles(GroovyClassLoader classLoader, GenerationContext context, Path dir, String sourceDirectory, String targetDirectory, List<File> outputFiles) throws Exception {
-    try (Stream<Path> paths = Files.walk(dir)) {
-      paths.forEach(path -> {
-        try {
-          outFile(classLoader, context, sourceDirectory, targetDirectory, outputFiles, path);
-        } catch (Exception e) {
-          throw new RuntimeException("Failed to process file: " + path, e);
-        }
-      });
+  private void publishMetrics(GenerationReport report) {
+    GenerationMetrics metrics = config.getMetrics();
+    metrics.increment("codegen.generations", 1, Map.of("datasource", report.datasourceName(),
+      "template", report.templateName(), "outcome", report.failures().isEmpty() ? "success" : "partial"));
+    Map<String, String> tags = Map.of("template", report.templateName());
+    metrics.record("codegen.generation.duration", report.wallTime().toNanos(), tags);
+    metrics.increment("codegen.files.written", report.filesWritten(), tags);
+    metrics.increment("codegen.bytes.written", report.bytesWritten(), tags);
+    metrics.increment("codegen.failures", report.failures().size(), tags);
+    metrics.gauge("codegen.generator.classes", generatorClassCache.getLoadedClassCount(), Map.of());
+    for (GenerationReport.PhaseTiming phase : report.phases()) {
+      Map<String, String> phaseTags = new HashMap<>(tags);
+      phaseTags.put("phase", phase.phase());
+      if (phase.name() != null) {
+        phaseTags.put("name", phase.name());
+      }
+      metrics.record("codegen.phase.duration", phase.wallTime().toNanos(), phaseTags);
+      if (phase.cpuTime() != null) {
+        metrics.record("codegen.phase.cpu", phase.cpuTime().toNanos(), phaseTags);
+      }
     }
   }
 
-  private void outFile(GroovyClassLoader classLoader, GenerationContext context, String sourceDirectory, String targetDirectory, List<File> outputFiles, Path path) throws Exception {
-    // Skip .flexmodel directory and its contents
-    if (isFlexmodelPath(path)) {
-      return;
+  /**
+   * Drop the compiled generator classes of the given template, they will be compiled again on next use
+   */
+  public void invalidateGenerators(String templateName) {
+    generatorClassCache.invalidate(templateName);
+    resultCache.invalidate(templateName);
+  }
+
+  /**
+   * Drop all compiled generator classes
+   */
+  public void invalidateGenerators() {
+    generatorClassCache.invalidateAll();
+    resultCache.invalidateAll();
+  }
+
+  /**
+   * Drop the cached model snapshots of a datasource. Changed model definitions are detected on their own, call this
+   * to release memory after a datasource was removed.
+   */
+  public void invalidateModels(String datasourceName) {
+    modelSnapshotCache.invalidate(datasourceName);
+  }
+
+  int getCachedGeneratorCount() {
+    return generatorClassCache.size();
+  }
+
+  int getLoadedGeneratorClassCount() {
+    return generatorClassCache.getLoadedClassCount();
+  }
+
+  int getStaticallyCompiledGeneratorCount() {
+    return generatorClassCache.getStaticallyCompiledCount();
+  }
+
+  /**
+   * Process the indexed template files, return the generated paths relative to the output root
+   */
+  private List<String> outputFiles(GenerationRun run, TemplateIndex index, Stopwatch walkStopwatch) throws Exception {
+    // Directories are created up front, so the files inside them can be processed in any order
+    List<String> outputFiles = new ArrayList<>();
+    List<TemplateFile> files = new ArrayList<>();
+    for (TemplateFile file : index.files()) {
+      if (file.type() == TemplateFileType.DIRECTORY) {
+        createDirectory(run, file, outputFiles);
+      } else {
+        files.add(file);
+      }
     }
+    run.getStats().record(GenerationStats.WALK, null, walkStopwatch);
+    run.getProgress().addUnits(files.size());
 
-    String normalizedSource = sourceDirectory.replace("\\", "/");
-    String normalizedTarget = targetDirectory.replace("\\", "/");
+    List<List<String>> fileOutputs = mapInOrder(files, file -> {
+      List<String> result = new ArrayList<>();
+      outFile(run, file, result);
+      return result;
+    });
+    fileOutputs.forEach(outputFiles::addAll);
+    return outputFiles;
+  }
 
-    if (Files.isDirectory(path)) {
-      createDirectory(path, context, normalizedSource, normalizedTarget, outputFiles);
-    } else if (path.toString().endsWith(".groovy")) {
-      processGroovyFile(classLoader, context, path, normalizedSource, normalizedTarget, outputFiles);
-    } else {
-      copyFile(path, context, normalizedSource, normalizedTarget, outputFiles);
+  /**
+   * Apply the function to every item, on virtual threads or the worker pool when enabled. Results keep the item order.
+   */
+  private <T, R> List<R> mapInOrder(List<T> items, FileTask<T, R> task) {
+    if (fileExecutor != null) {
+      return mapOnVirtualThreads(items, task);
+    }
+    if (workerPool == null) {
+      return items.stream().map(item -> applyTask(task, item)).toList();
+    }
+    if (ForkJoinTask.getPool() == workerPool) {
+      // Already running on the worker pool, e.g. models of a generator, fan out in place
+      return items.parallelStream().map(item -> applyTask(task, item)).toList();
     }
+    return workerPool.submit(() -> items.parallelStream().map(item -> applyTask(task, item)).toList()).join();
   }
 
-  private void createDirectory(Path path, GenerationContext context, String sourceDirectory, String targetDirectory, List<File> outputFiles) throws Exception {
-    String targetPath = resolveTargetPath(path.toString(), context, sourceDirectory, targetDirectory);
-    File targetDir = new File(targetPath);
-    targetDir.mkdirs();
-    outputFiles.add(targetDir);
+  /**
+   * One virtual thread per item, nested calls fan out again, e.g. the models of a generator
+   */
+  private <T, R> List<R> mapOnVirtualThreads(List<T> items, FileTask<T, R> task) {
+    List<CompletableFuture<R>> futures = items.stream()
+      .map(item -> CompletableFuture.supplyAsync(() -> applyTask(task, item), fileExecutor))
+      .toList();
+    try {
+      // Wait for every task, a failed generation must not leave tasks writing behind it
+      CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+    return futures.stream().map(CompletableFuture::join).toList();
   }
 
-  private void processGroovyFile(GroovyClassLoader classLoader, GenerationContext context, Path path, String sourceDirectory, String targetDirectory, List<File> outputFiles) throws Exception {
+  private <T, R> R applyTask(FileTask<T, R> task, T item) {
     try {
-      Class<?> scriptClass = classLoader.parseClass(Files.readString(path));
-      Object groovyObject = scriptClass.getDeclaredConstructor().newInstance();
-      String targetPath = resolveTargetPath(path.getParent().toString(), context, sourceDirectory, targetDirectory);
-
-      @SuppressWarnings("unchecked")
-      List<File> result = (List<File>) scriptClass.getMethod("generate", GenerationContext.class, String.class)
-        .invoke(groovyObject, context, targetPath);
-      outputFiles.addAll(result);
+      return task.apply(item);
     } catch (Exception e) {
-      log.error("Generate file error, file: {}", path, e);
-      String targetPath = resolveTargetPath(path.toString(), context, sourceDirectory, targetDirectory);
-      Files.copy(path, Paths.get(targetPath), StandardCopyOption.REPLACE_EXISTING);
-      outputFiles.add(new File(targetPath));
+      throw new RuntimeException("Failed to process file: " + item, e);
     }
   }
 
-  private void copyFile(Path path, GenerationContext context, String sourceDirectory, String targetDirectory, List<File> outputFiles) throws Exception {
-    String targetPath = resolveTargetPath(path.toString(), context, sourceDirectory, targetDirectory);
+  private void outFile(GenerationRun run, TemplateFile file, List<String> outputFiles) throws Exception {
+    run.getProgress().checkCancelled();
+    if (file.type() == TemplateFileType.GENERATOR) {
+      processGroovyFile(run, file, outputFiles);
+    } else {
+      copyFile(run, file, outputFiles);
+      run.getProgress().completeUnit();
+    }
+  }
 
-    // Read source file content and apply template variable replacement
-    String content = Files.readString(path);
-    String processedContent = simpleRenderTemplate(content, context.getVariables());
+  private void createDirectory(GenerationRun run, TemplateFile file, List<String> outputFiles) throws Exception {
+    String targetPath = resolveTargetPath(run, file);
+    run.getSink().createDirectory(targetPath);
+    outputFiles.add(targetPath);
+  }
 
-    // Ensure target directory exists and write processed content
-    Path targetFilePath = Paths.get(targetPath);
-    Files.createDirectories(targetFilePath.getParent());
-    Files.writeString(targetFilePath, processedContent);
+  private void processGroovyFile(GenerationRun run, TemplateFile file, List<String> outputFiles) throws Exception {
+    Path path = file.path();
+    String unit = "generate:" + file.relativePath();
+    Class<?> scriptClass;
+    Stopwatch compileStopwatch = Stopwatch.start();
+    try {
+      scriptClass = getGeneratorClass(run.getTemplateName(), file);
+      run.getStats().record(GenerationStats.COMPILE, file.relativePath(), compileStopwatch);
+    } catch (CompilationFailedException e) {
+      // The generator produces nothing, its source is not part of the output
+      log.error("Generator compilation error, file: {}", path, e);
+      run.addFailure(new GenerationFailure(path.toString(), null, e));
+      run.getProgress().completeUnit();
+      return;
+    }
+    String targetDirectory = resolveTargetPath(run, file);
+    GenerationEvents.GeneratorEvent event = new GenerationEvents.GeneratorEvent();
+    event.begin();
+    // Slices may run on other threads, each adds what its thread wrote
+    AtomicLong bytesWritten = new AtomicLong();
 
-    outputFiles.add(new File(targetPath));
+    // Each model and enum is rendered with its own context, so they can run in parallel and fail independently
+    List<GenerationContext> slices = sliceContext(scriptClass, run.getContext());
+    // The generator counted as one unit until its models were known
+    run.getProgress().addUnits(slices.size() - 1);
+    List<List<String>> results = mapInOrder(slices, slice -> {
+      run.getProgress().checkCancelled();
+      String sliceUnit = unit + "#" + sliceName(slice);
+      String fingerprint = null;
+      if (run.isIncremental()) {
+        List<Object> sliceModels = new ArrayList<>(slice.getModelClassList());
+        sliceModels.addAll(slice.getEnumClassList());
+        fingerprint = run.fingerprint(file.hash(), sliceModels);
+        List<String> reused = run.reuseOutputs(sliceUnit, fingerprint);
+        if (reused != null) {
+          run.getProgress().completeUnit();
+          return reused;
+        }
+      }
+      Stopwatch stopwatch = Stopwatch.start();
+      long threadBytes = run.getSink().getThreadBytes();
+      try {
+        List<String> result = runGenerator(run, scriptClass, slice, targetDirectory);
+        if (run.isIncremental()) {
+          run.recordOutputs(sliceUnit, fingerprint, result);
+        }
+        return result;
+      } catch (InvocationTargetException | GeneratorFailedException e) {
+        // Only failures of the generator itself are per model, sink errors fail the run
+        Throwable cause = e.getCause();
+        String model = sliceName(slice);
+        log.error("Generate file error, file: {}, model: {}", path, model, cause);
+        run.addFailure(new GenerationFailure(path.toString(), model, cause));
+        return List.of();
+      } finally {
+        bytesWritten.addAndGet(run.getSink().getThreadBytes() - threadBytes);
+        run.getStats().record(GenerationStats.GENERATOR, file.relativePath(), stopwatch);
+        run.getProgress().completeUnit();
+      }
+    });
+    results.forEach(outputFiles::addAll);
+    if (event.shouldCommit()) {
+      event.template = run.getTemplateName();
+      event.datasource = run.getContext().getSchemaName();
+      event.generator = file.relativePath();
+      event.modelCount = slices.size();
+      event.bytesWritten = bytesWritten.get();
+      event.commit();
+    }
   }
 
-  private String resolveTargetPath(String sourcePath, GenerationContext context, String sourceDirectory, String targetDirectory) {
-    String filePath = simpleRenderTemplate(sourcePath, context.getVariables()).replace("\\", "/");
-    return filePath.replace(sourceDirectory, targetDirectory);
+  /**
+   * Get the generator class, preferring a class compiled at build time from the same source. Those are compiled
+   * dynamically, templates compiled statically only use them for generators that do not compile statically.
+   */
+  private Class<?> getGeneratorClass(String templateName, TemplateFile file) throws IOException {
+    TemplateRoot root = templateLocations.get(templateName);
+    Class<?> precompiled = root != null ? root.findPrecompiledGenerator(templateName, file) : null;
+    if (precompiled != null && !config.isStaticCompilation(templateName)) {
+      return precompiled;
+    }
+    return generatorClassCache.getGeneratorClass(templateName, file.path(), precompiled);
   }
 
   /**
-   * Check if the path is within .flexmodel directory
+   * Run a generator for one slice and write its output through the sink of the run
    */
-  private boolean isFlexmodelPath(Path path) {
-    String pathString = path.toString().replace("\\", "/");
-    return pathString.contains("/.flexmodel/") || pathString.endsWith("/.flexmodel");
+  private List<String> runGenerator(GenerationRun run, Class<?> scriptClass, GenerationContext slice,
+                                    String targetDirectory) throws Exception {
+    Object generator = scriptClass.getDeclaredConstructor().newInstance();
+    String writeMethod;
+    if (slice.getModelClass() != null) {
+      writeMethod = "writeModel";
+    } else if (slice.getEnumClass() != null) {
+      writeMethod = "writeEnum";
+    } else if (declaresMethod(scriptClass, "write")) {
+      writeMethod = "write";
+    } else {
+      return runGeneratorInScratchDirectory(run, scriptClass, generator, slice, targetDirectory);
+    }
+    String targetFile = (String) scriptClass.getMethod("getTargetFile", GenerationContext.class, String.class)
+      .invoke(generator, slice, targetDirectory);
+    String targetPath = normalizeTargetPath(targetFile);
+    Method write = scriptClass.getMethod(writeMethod, PrintWriter.class, GenerationContext.class);
+    run.getSink().writeFile(targetPath, out -> {
+      PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      try {
+        write.invoke(generator, writer, slice);
+      } catch (InvocationTargetException e) {
+        throw new GeneratorFailedException(targetPath, e.getCause());
+      } catch (IllegalAccessException e) {
+        throw new IOException("Failed to write " + targetPath, e);
+      }
+      // PrintWriter swallows write failures, do not count a truncated file as written
+      if (writer.checkError()) {
+        throw new IOException("Failed to write " + targetPath);
+      }
+    });
+    return List.of(targetPath);
+  }
+
+  /**
+   * Generators overriding {@code generate} write files themselves, let them write into a scratch directory and
+   * copy the result through the sink.
+   * <p>
+   * The scratch directory is on the default file system, as such generators receive a path string and write with
+   * the default file system APIs. Generation into an archive, another file system or a stream therefore still
+   * touches the local disk for these generators, all other generators are written straight through the sink.
+   */
+  private List<String> runGeneratorInScratchDirectory(GenerationRun run, Class<?> scriptClass, Object generator,
+                                                      GenerationContext slice, String targetDirectory) throws Exception {
+    Path scratch = Files.createTempDirectory("codegen-scratch");
+    try {
+      scriptClass.getMethod("generate", GenerationContext.class, String.class)
+        .invoke(generator, slice, scratch.resolve(targetDirectory).toString());
+      List<String> outputs = new ArrayList<>();
+      try (Stream<Path> stream = Files.walk(scratch)) {
+        for (Path file : stream.filter(Files::isRegularFile).sorted().toList()) {
+          String targetPath = scratch.relativize(file).toString().replace("\\", "/");
+          run.getSink().copyFile(targetPath, file);
+          outputs.add(targetPath);
+        }
+      }
+      return outputs;
+    } finally {
+      deleteRecursively(scratch);
+    }
+  }
+
+  private void deleteRecursively(Path dir) throws IOException {
+    try (Stream<Path> stream = Files.walk(dir)) {
+      for (Path path : stream.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  /**
+   * Split the context into one context per model and enum. Generators overriding {@code write} render the whole
+   * model list into a single file, they keep the full context.
+   */
+  private List<GenerationContext> sliceContext(Class<?> scriptClass, GenerationContext context) {
+    if (declaresMethod(scriptClass, "write")
+        || !declaresMethod(scriptClass, "writeModel") && !declaresMethod(scriptClass, "writeEnum")) {
+      return List.of(context);
+    }
+    List<GenerationContext> slices = new ArrayList<>();
+    if (declaresMethod(scriptClass, "writeModel")) {
+      for (ModelClass modelClass : context.getModelClassList()) {
+        GenerationContext slice = copyContext(context);
+        slice.getModelClassList().add(modelClass);
+        slice.setModelClass(modelClass);
+        slices.add(slice);
+      }
+    }
+    if (declaresMethod(scriptClass, "writeEnum")) {
+      for (EnumClass enumClass : context.getEnumClassList()) {
+        GenerationContext slice = copyContext(context);
+        slice.getEnumClassList().add(enumClass);
+        slice.setEnumClass(enumClass);
+        slices.add(slice);
+      }
+    }
+    return slices;
+  }
+
+  private boolean declaresMethod(Class<?> scriptClass, String name) {
+    for (Method method : scriptClass.getDeclaredMethods()) {
+      if (method.getName().equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private GenerationContext copyContext(GenerationContext context) {
+    GenerationContext copy = new GenerationContext();
+    copy.setSchemaName(context.getSchemaName());
+    copy.setPackageName(context.getPackageName());
+    copy.setVariables(new HashMap<>(context.getVariables()));
+    return copy;
+  }
+
+  private String sliceName(GenerationContext slice) {
+    if (slice.getModelClass() != null) {
+      return slice.getModelClass().getShortClassName();
+    }
+    if (slice.getEnumClass() != null) {
+      return slice.getEnumClass().getShortClassName();
+    }
+    return "*";
+  }
+
+  private void copyFile(GenerationRun run, TemplateFile file, List<String> outputFiles) throws Exception {
+    String unit = "copy:" + file.relativePath();
+    String fingerprint = null;
+    if (run.isIncremental()) {
+      fingerprint = run.fingerprint(file.hash(), List.of());
+      List<String> reused = run.reuseOutputs(unit, fingerprint);
+      if (reused != null) {
+        outputFiles.addAll(reused);
+        return;
+      }
+    }
+    Stopwatch stopwatch = Stopwatch.start();
+    GenerationEvents.CopyFileEvent event = new GenerationEvents.CopyFileEvent();
+    event.begin();
+    long threadBytes = run.getSink().getThreadBytes();
+    String targetPath = resolveTargetPath(run, file);
+
+    if (file.type() == TemplateFileType.PASSTHROUGH) {
+      run.getSink().copyFile(targetPath, file.path());
+    } else {
+      // Render the compiled template content straight into the output
+      run.getSink().writeFile(targetPath, out -> {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        file.content().render(run.getContext().getVariables(), writer);
+        writer.flush();
+      });
+    }
+
+    run.getStats().record(GenerationStats.COPY, null, stopwatch);
+    if (event.shouldCommit()) {
+      event.template = run.getTemplateName();
+      event.datasource = run.getContext().getSchemaName();
+      event.file = file.relativePath();
+      event.bytesWritten = run.getSink().getThreadBytes() - threadBytes;
+      event.commit();
+    }
+
+    outputFiles.add(targetPath);
+    if (run.isIncremental()) {
+      run.recordOutputs(unit, fingerprint, List.of(targetPath));
+    }
+  }
+
+  /**
+   * Render the target path of a template file, relative to the output root
+   */
+  private String resolveTargetPath(GenerationRun run, TemplateFile file) {
+    return file.targetPath().render(run.getContext().getVariables()).replace("\\", "/");
+  }
+
+  private String normalizeTargetPath(String targetFile) {
+    String targetPath = targetFile.replace("\\", "/");
+    while (targetPath.startsWith("/")) {
+      targetPath = targetPath.substring(1);
+    }
+    return targetPath;
   }
 
 
@@ -262,7 +976,7 @@ public class CodeGenerationService {
    */
   private Map<String, Object> mergeWithDefaultVariables(String templateName, Map<String, Object> userVariables) {
     // Get preloaded default variables from cache
-    TemplateInfo templateInfo = templateInfoMap.get(templateName);
+    TemplateInfo templateInfo = getTemplateInfo(templateName).orElse(null);
 
 
     // User variables provided, need to merge
@@ -277,35 +991,25 @@ public class CodeGenerationService {
   }
 
   /**
-   * Load default variables from .flexmodel/variables.json and cache them
+   * Load default variables from .flexmodel/variables.json, empty when the template has none
    */
-  private Map<String, Object> loadTemplate(String templateName) throws Exception {
-    Path variablesPath;
-
-    if (fs == FileSystems.getDefault()) {
-      // Local file system
-      URL resUrl = this.getClass().getClassLoader().getResource(TEMPLATE_ROOT + "/" + templateName + "/.flexmodel/variables.json");
-      if (resUrl == null) {
-        return null; // No default variables file
-      }
-      variablesPath = Paths.get(resUrl.toURI());
-    } else {
-      // JAR file system
-      variablesPath = fs.getPath("/" + TEMPLATE_ROOT + "/" + templateName + "/.flexmodel/variables.json");
-      if (!Files.exists(variablesPath)) {
-        return null; // No default variables file
+  private Optional<TemplateInfo> loadTemplate(String templateName) {
+    try {
+      String jsonContent = templateLocations.get(templateName).readVariables(templateName);
+      if (jsonContent == null) {
+        log.debug("No default variables found for template: {}", templateName);
+        return Optional.empty();
       }
+      Map<String, Object> variables = JsonUtils.parseToMap(jsonContent);
+      log.debug("Loaded default variables for template: {}", templateName);
+      return Optional.of(new TemplateInfo(templateName, variables));
+    } catch (Exception e) {
+      log.warn("Failed to load default variables for template: {}", templateName, e);
+      return Optional.empty();
     }
-
-    String jsonContent = Files.readString(variablesPath);
-    Map<String, Object> variables = JsonUtils.parseToMap(jsonContent);
-    // Cache the result
-    templateInfoMap.put(templateName, new TemplateInfo(templateName, variables));
-
-    return variables;
   }
 
-  private GenerationContext buildContext(String datasource, Map<String, Object> variables) {
+  private GenerationContext buildContext(String datasource, Map<String, Object> variables, ModelSnapshot snapshot) {
     String packageName = variables.getOrDefault("packageName", "com.example").toString();
 
     // Create a copy of variables to avoid modifying the original
@@ -317,15 +1021,25 @@ public class CodeGenerationService {
     ctx.setVariables(contextVariables);
 
     // Load all models
-    sessionFactory.getModels(datasource).forEach(model -> {
-      if (model instanceof EntityDefinition entity) {
-        ctx.getModelClassList().add(ModelClass.buildModelClass("^fs_", ctx.getPackageName(), datasource, entity));
-      } else if (model instanceof EnumDefinition enumDef) {
-        ctx.getEnumClassList().add(EnumClass.buildEnumClass(ctx.getPackageName(), datasource, enumDef));
-      }
-    });
+    ctx.getModelClassList().addAll(snapshot.getModelClasses());
+    ctx.getEnumClassList().addAll(snapshot.getEnumClasses());
 
     return ctx;
   }
 
+  @FunctionalInterface
+  private interface FileTask<T, R> {
+    R apply(T item) throws Exception;
+  }
+
+  /**
+   * A generator that threw while writing through the sink, distinguishes its failures from those of the sink
+   */
+  private static class GeneratorFailedException extends IOException {
+
+    private GeneratorFailedException(String targetPath, Throwable cause) {
+      super("Failed to write " + targetPath, cause);
+    }
+  }
+
 }
@@ -0,0 +1,104 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the files and bytes written through another sink
+ *
+ * @author cjbi
+ */
+class CountingOutputSink implements OutputSink {
+
+  private final OutputSink delegate;
+  private final AtomicInteger files = new AtomicInteger();
+  private final AtomicLong bytes = new AtomicLong();
+  private final ThreadLocal<long[]> threadBytes = ThreadLocal.withInitial(() -> new long[1]);
+
+  CountingOutputSink(OutputSink delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void createDirectory(String path) throws IOException {
+    delegate.createDirectory(path);
+  }
+
+  @Override
+  public void writeFile(String path, ContentWriter content) throws IOException {
+    long[] count = new long[1];
+    delegate.writeFile(path, out -> {
+      CountingOutputStream counting = new CountingOutputStream(out);
+      content.writeTo(counting);
+      count[0] = counting.count;
+    });
+    // Counted once the delegate returns, it may have rendered the content on another thread
+    files.incrementAndGet();
+    addBytes(count[0]);
+  }
+
+  @Override
+  public void copyFile(String path, Path source) throws IOException {
+    // Keep the copy of the delegate, it may avoid streaming the content
+    delegate.copyFile(path, source);
+    files.incrementAndGet();
+    addBytes(Files.size(source));
+  }
+
+  private void addBytes(long count) {
+    bytes.addAndGet(count);
+    threadBytes.get()[0] += count;
+  }
+
+  @Override
+  public void finish() throws IOException {
+    delegate.finish();
+  }
+
+  int getFiles() {
+    return files.get();
+  }
+
+  long getBytes() {
+    return bytes.get();
+  }
+
+  /**
+   * Bytes written by the current thread, the difference of two calls on one thread is what it wrote in between
+   */
+  long getThreadBytes() {
+    return threadBytes.get()[0];
+  }
+
+  @Override
+  public String toString() {
+    return delegate.toString();
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+
+}
@@ -0,0 +1,48 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes generated files below a root directory
+ *
+ * @author cjbi
+ */
+class DirectoryOutputSink implements OutputSink {
+
+  private final Path root;
+
+  DirectoryOutputSink(Path root) {
+    this.root = root;
+  }
+
+  @Override
+  public void createDirectory(String path) throws IOException {
+    Files.createDirectories(root.resolve(path));
+  }
+
+  @Override
+  public void writeFile(String path, ContentWriter content) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    try (OutputStream out = Files.newOutputStream(file)) {
+      content.writeTo(out);
+    }
+  }
+
+  @Override
+  public void copyFile(String path, Path source) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.copy(source, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @Override
+  public String toString() {
+    return root.toString();
+  }
+
+}
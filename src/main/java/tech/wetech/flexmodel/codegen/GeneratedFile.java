@@ -0,0 +1,16 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A file published by {@link CodeGenerationService#generateCodeStream(String, String, java.util.Map)}
+ *
+ * @param path           path relative to the output root, with {@code /} as separator
+ * @param datasourceName datasource the file was generated from
+ * @param templateName   template the file was generated with
+ * @param size           content size in bytes
+ * @param content        read-only file content
+ * @author cjbi
+ */
+public record GeneratedFile(String path, String datasourceName, String templateName, long size, ByteBuffer content) {
+}
@@ -0,0 +1,64 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the number of concurrent generations. Requests beyond the limit wait in a bounded queue, and are
+ * rejected when the queue is full or they waited longer than the configured timeout.
+ *
+ * @author cjbi
+ */
+class GenerationAdmission {
+
+  private final Semaphore permits;
+  private final int maxQueued;
+  private final Duration queueTimeout;
+  private final AtomicInteger queued = new AtomicInteger();
+
+  GenerationAdmission(int maxConcurrent, int maxQueued, Duration queueTimeout) {
+    this.permits = new Semaphore(maxConcurrent, true);
+    this.maxQueued = maxQueued;
+    this.queueTimeout = queueTimeout;
+  }
+
+  /**
+   * Wait for a generation slot, the returned permit must be closed once the generation is done
+   */
+  Permit acquire() {
+    if (permits.tryAcquire()) {
+      return permits::release;
+    }
+    if (queued.incrementAndGet() > maxQueued) {
+      queued.decrementAndGet();
+      throw new GenerationRejectedException("Too many code generation requests, " + maxQueued + " already waiting");
+    }
+    try {
+      if (!permits.tryAcquire(queueTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new GenerationRejectedException("Timed out after " + queueTimeout + " waiting for a code generation slot");
+      }
+      return permits::release;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GenerationRejectedException("Interrupted while waiting for a code generation slot");
+    } finally {
+      queued.decrementAndGet();
+    }
+  }
+
+  int getQueued() {
+    return queued.get();
+  }
+
+  int getAvailable() {
+    return permits.availablePermits();
+  }
+
+  interface Permit extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+}
@@ -0,0 +1,113 @@
+package tech.wetech.flexmodel.codegen;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of code generation, so recordings can attribute time, allocation and I/O to
+ * templates and generators. Events cost next to nothing while no recording is running.
+ *
+ * @author cjbi
+ */
+final class GenerationEvents {
+
+  private static final String CATEGORY = "Flexmodel";
+
+  private GenerationEvents() {
+  }
+
+  @Name("flexmodel.codegen.Generation")
+  @Label("Code Generation")
+  @Description("Generation of a template for a datasource")
+  @Category({CATEGORY, "Code Generation"})
+  @StackTrace(false)
+  static class GenerationEvent extends Event {
+
+    @Label("Template")
+    String template;
+
+    @Label("Datasource")
+    String datasource;
+
+    @Label("Model Count")
+    int modelCount;
+
+    @Label("Files Written")
+    int filesWritten;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Failed")
+    boolean failed;
+  }
+
+  @Name("flexmodel.codegen.BuildContext")
+  @Label("Build Context")
+  @Description("Creation of the generation context from the datasource models")
+  @Category({CATEGORY, "Code Generation"})
+  @StackTrace(false)
+  static class BuildContextEvent extends Event {
+
+    @Label("Template")
+    String template;
+
+    @Label("Datasource")
+    String datasource;
+
+    @Label("Model Count")
+    int modelCount;
+  }
+
+  @Name("flexmodel.codegen.Generator")
+  @Label("Generator")
+  @Description("Run of a compiled Groovy generator for all its models, compilation is not included")
+  @Category({CATEGORY, "Code Generation"})
+  @StackTrace(false)
+  static class GeneratorEvent extends Event {
+
+    @Label("Template")
+    String template;
+
+    @Label("Datasource")
+    String datasource;
+
+    @Label("Generator")
+    String generator;
+
+    @Label("Model Count")
+    int modelCount;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+  }
+
+  @Name("flexmodel.codegen.CopyFile")
+  @Label("Copy File")
+  @Description("Rendering or copy of a static template file")
+  @Category({CATEGORY, "Code Generation"})
+  @StackTrace(false)
+  static class CopyFileEvent extends Event {
+
+    @Label("Template")
+    String template;
+
+    @Label("Datasource")
+    String datasource;
+
+    @Label("File")
+    String file;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+  }
+
+}
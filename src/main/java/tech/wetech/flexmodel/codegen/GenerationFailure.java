@@ -0,0 +1,14 @@
+package tech.wetech.flexmodel.codegen;
+
+/**
+ * A generator that failed for a single model or enum, or failed to compile. The remaining models and generators are
+ * still generated.
+ *
+ * @param generator generator source file
+ * @param model     short class name of the model or enum being generated, {@code null} when the generator failed to
+ *                  compile
+ * @param cause     the failure
+ * @author cjbi
+ */
+public record GenerationFailure(String generator, String model, Throwable cause) {
+}
@@ -0,0 +1,94 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Fingerprints of the generation units written to an output directory, used by incremental generation.
+ * <p>
+ * A unit is a static template file or a generator run for one model. Each entry records the fingerprint of the
+ * unit inputs and the output files, relative to the output root, that the unit produced.
+ * <p>
+ * The manifest is stored beside the output directory, not inside it, so the output holds generated files only.
+ *
+ * @author cjbi
+ */
+class GenerationManifest {
+
+  private static final String FILE_SUFFIX = ".codegen-manifest.properties";
+
+  private static final String SEPARATOR = "|";
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Manifest file of an output directory, a hidden file next to it
+   */
+  static Path location(Path root) {
+    Path directory = root.toAbsolutePath().normalize();
+    if (directory.getParent() == null) {
+      throw new IllegalArgumentException("Incremental generation needs an output directory with a parent: " + root);
+    }
+    return directory.resolveSibling("." + directory.getFileName() + FILE_SUFFIX);
+  }
+
+  static GenerationManifest load(Path root) throws IOException {
+    GenerationManifest manifest = new GenerationManifest();
+    Path file = location(root);
+    if (!Files.exists(file)) {
+      return manifest;
+    }
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(file)) {
+      properties.load(reader);
+    }
+    for (String unit : properties.stringPropertyNames()) {
+      List<String> values = Arrays.asList(properties.getProperty(unit).split("\\" + SEPARATOR, -1));
+      manifest.entries.put(unit, new Entry(values.get(0), values.subList(1, values.size())));
+    }
+    return manifest;
+  }
+
+  void store(Path root) throws IOException {
+    Path file = location(root);
+    Properties properties = new Properties();
+    entries.forEach((unit, entry) -> {
+      List<String> values = new ArrayList<>();
+      values.add(entry.fingerprint());
+      values.addAll(entry.outputs());
+      properties.setProperty(unit, String.join(SEPARATOR, values));
+    });
+    try (Writer writer = Files.newBufferedWriter(file)) {
+      properties.store(writer, "Generated by flexmodel codegen, do not edit");
+    }
+  }
+
+  Entry get(String unit) {
+    return entries.get(unit);
+  }
+
+  void put(String unit, Entry entry) {
+    entries.put(unit, entry);
+  }
+
+  Set<String> getOutputs() {
+    return entries.values().stream()
+      .flatMap(entry -> entry.outputs().stream())
+      .collect(Collectors.toSet());
+  }
+
+  record Entry(String fingerprint, List<String> outputs) {
+  }
+
+}
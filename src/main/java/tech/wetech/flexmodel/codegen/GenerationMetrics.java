@@ -0,0 +1,37 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.util.Map;
+
+/**
+ * Receives the counters and histograms of code generation, e.g. to forward them to a metrics registry.
+ * Implementations must accept calls from several threads.
+ *
+ * @author cjbi
+ */
+public interface GenerationMetrics {
+
+  /**
+   * Discards every measurement
+   */
+  GenerationMetrics NOOP = new GenerationMetrics() {
+  };
+
+  /**
+   * Add to a counter
+   */
+  default void increment(String name, long amount, Map<String, String> tags) {
+  }
+
+  /**
+   * Record a value of a histogram, durations are in nanoseconds
+   */
+  default void record(String name, long value, Map<String, String> tags) {
+  }
+
+  /**
+   * Set the current value of a gauge
+   */
+  default void gauge(String name, long value, Map<String, String> tags) {
+  }
+
+}
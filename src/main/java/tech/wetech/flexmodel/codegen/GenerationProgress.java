@@ -0,0 +1,59 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Progress and cancellation of a single generation request
+ *
+ * @author cjbi
+ */
+class GenerationProgress {
+
+  private final GenerationProgressListener listener;
+  private final BooleanSupplier cancelled;
+  private final AtomicInteger completedUnits = new AtomicInteger();
+  private final AtomicInteger totalUnits = new AtomicInteger();
+
+  /**
+   * @param cancelled whether the caller asked to stop, checked before every unit
+   */
+  GenerationProgress(GenerationProgressListener listener, BooleanSupplier cancelled) {
+    this.listener = listener;
+    this.cancelled = cancelled;
+  }
+
+  /**
+   * Progress of a synchronous request, neither reported nor cancellable
+   */
+  static GenerationProgress untracked() {
+    return new GenerationProgress(GenerationProgressListener.NONE, () -> false);
+  }
+
+  /**
+   * Add units to the total, negative when a generator has no models to render
+   */
+  void addUnits(int units) {
+    totalUnits.addAndGet(units);
+  }
+
+  void completeUnit() {
+    int completed = completedUnits.incrementAndGet();
+    listener.onProgress(completed, totalUnits.get());
+  }
+
+  boolean isCancelled() {
+    return cancelled.getAsBoolean();
+  }
+
+  /**
+   * Stop the generation before the next unit when the caller cancelled it
+   */
+  void checkCancelled() {
+    if (isCancelled()) {
+      throw new CancellationException("Code generation cancelled");
+    }
+  }
+
+}
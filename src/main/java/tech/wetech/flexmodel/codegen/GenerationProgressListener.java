@@ -0,0 +1,21 @@
+package tech.wetech.flexmodel.codegen;
+
+/**
+ * Receives the progress of an asynchronous generation. Units are static files and the models and enums rendered
+ * by generators, so {@code completedUnits / totalUnits} is the share of the work done. The total grows while
+ * generators are expanded into their models. Implementations must accept calls from several threads.
+ *
+ * @author cjbi
+ */
+@FunctionalInterface
+public interface GenerationProgressListener {
+
+  /**
+   * Ignores all progress
+   */
+  GenerationProgressListener NONE = (completedUnits, totalUnits) -> {
+  };
+
+  void onProgress(int completedUnits, int totalUnits);
+
+}
@@ -0,0 +1,14 @@
+package tech.wetech.flexmodel.codegen;
+
+/**
+ * Thrown when a code generation request is not admitted because too many generations are running or waiting
+ *
+ * @author cjbi
+ */
+public class GenerationRejectedException extends RuntimeException {
+
+  public GenerationRejectedException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,40 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Timings and output statistics of a single code generation
+ *
+ * @param wallTime     elapsed time of the whole generation
+ * @param cpuTime      CPU time of all phases, summed over the threads that ran them, {@code null} when the CPU time
+ *                     of a phase is not available. The {@code render} phase is part of other phases and not added
+ *                     again
+ * @param phases       time spent per phase, see {@link PhaseTiming}
+ * @param filesWritten number of files written to the output
+ * @param filesReused  number of files kept from a previous incremental generation
+ * @param bytesWritten number of bytes written to the output
+ * @param failures     models whose generator failed
+ * @author cjbi
+ */
+public record GenerationReport(String datasourceName, String templateName, Duration wallTime, Duration cpuTime,
+                               List<PhaseTiming> phases, int filesWritten, int filesReused, long bytesWritten,
+                               List<GenerationFailure> failures) {
+
+  /**
+   * Time spent in one phase. Phases are {@code merge} of the default variables, {@code snapshot} of the datasource
+   * models, {@code admission} waiting for a generation slot, {@code buildContext}, {@code walk} of the template
+   * files, {@code compile} and {@code generator} once per Groovy generator and {@code copy} of all static files.
+   * <p>
+   * In virtual thread mode the JVM does not measure the CPU time of the virtual threads running the files, the
+   * CPU time of their phases is {@code null}. The {@code render} phase then reports the rendering on the worker
+   * pool, its time is also part of the {@code generator} and {@code copy} wall times.
+   *
+   * @param name    template file of a generator, {@code null} for the other phases
+   * @param count   number of times the phase ran, e.g. once per model for a generator
+   * @param cpuTime CPU time of the phase, {@code null} when it is not available
+   */
+  public record PhaseTiming(String phase, String name, int count, Duration wallTime, Duration cpuTime) {
+  }
+
+}
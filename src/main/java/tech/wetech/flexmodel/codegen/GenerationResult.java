@@ -0,0 +1,11 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.nio.file.Path;
+
+/**
+ * Output directory of a code generation together with its report
+ *
+ * @author cjbi
+ */
+public record GenerationResult(Path path, GenerationReport report) {
+}
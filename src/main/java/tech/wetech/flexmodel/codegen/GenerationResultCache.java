@@ -0,0 +1,132 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical in-flight generations into a single execution and keeps completed outputs in an LRU cache
+ * bounded by size and time to live.
+ * <p>
+ * Callers joining a generation in flight receive the same output directory, whether it is cached or not. Outputs of
+ * generations that failed for some models are handed to those callers but not cached, later requests generate again.
+ *
+ * @author cjbi
+ */
+class GenerationResultCache {
+
+  private final int maxSize;
+  private final long ttlMillis;
+  private final Map<Key, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+  private final Map<Key, CachedResult> completed;
+
+  GenerationResultCache(int maxSize, Duration ttl) {
+    this.maxSize = maxSize;
+    this.ttlMillis = ttl.toMillis();
+    this.completed = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+        return size() > GenerationResultCache.this.maxSize;
+      }
+    };
+  }
+
+  /**
+   * Get the cached output for the key, join an identical generation in flight, or run the generation
+   */
+  Path get(Key key, Supplier<GenerationResult> generation) {
+    Path cached = lookup(key);
+    if (cached != null) {
+      return cached;
+    }
+    CompletableFuture<Path> future = new CompletableFuture<>();
+    CompletableFuture<Path> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      return join(existing);
+    }
+    try {
+      // Another caller may have completed the same generation in the meantime
+      Path result = lookup(key);
+      if (result == null) {
+        GenerationResult generated = generation.get();
+        result = generated.path();
+        if (generated.report().failures().isEmpty()) {
+          store(key, result);
+        }
+      }
+      future.complete(result);
+      return result;
+    } catch (Throwable e) {
+      // Errors too, e.g. a generator overflowing the stack, callers joining the future must not wait forever
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+  /**
+   * Drop cached outputs of the given template
+   */
+  synchronized void invalidate(String templateName) {
+    completed.keySet().removeIf(key -> key.templateName().equals(templateName));
+  }
+
+  synchronized void invalidateAll() {
+    completed.clear();
+  }
+
+  synchronized int size() {
+    return completed.size();
+  }
+
+  private synchronized Path lookup(Key key) {
+    CachedResult cachedResult = completed.get(key);
+    if (cachedResult == null) {
+      return null;
+    }
+    // Outputs may have been removed from disk by the caller or by cleanup
+    if (System.currentTimeMillis() - cachedResult.createdAt() >= ttlMillis || !Files.exists(cachedResult.path())) {
+      completed.remove(key);
+      return null;
+    }
+    return cachedResult.path();
+  }
+
+  private synchronized void store(Key key, Path path) {
+    if (maxSize > 0) {
+      completed.put(key, new CachedResult(path, System.currentTimeMillis()));
+    }
+  }
+
+  private Path join(CompletableFuture<Path> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof Error cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @param variablesHash hash of the merged template variables
+   * @param schemaVersion version of the datasource models
+   */
+  record Key(String datasourceName, String templateName, String variablesHash, String schemaVersion) {
+  }
+
+  private record CachedResult(Path path, long createdAt) {
+  }
+
+}
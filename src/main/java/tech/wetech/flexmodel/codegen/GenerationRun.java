@@ -0,0 +1,136 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Scratch state of a single code generation request
+ *
+ * @author cjbi
+ */
+class GenerationRun {
+
+  private final String templateName;
+  private final GenerationContext context;
+  private final ModelSnapshot snapshot;
+  private final CountingOutputSink sink;
+  private final GenerationStats stats;
+  private final GenerationProgress progress;
+  private final List<GenerationFailure> failures = new CopyOnWriteArrayList<>();
+
+  private Path targetRoot;
+  private GenerationManifest previousManifest;
+  private GenerationManifest manifest;
+  private String variablesFingerprint;
+
+  GenerationRun(String templateName, GenerationContext context, ModelSnapshot snapshot, CountingOutputSink sink,
+                GenerationStats stats, GenerationProgress progress) {
+    this.templateName = templateName;
+    this.context = context;
+    this.snapshot = snapshot;
+    this.sink = sink;
+    this.stats = stats;
+    this.progress = progress;
+  }
+
+  String getTemplateName() {
+    return templateName;
+  }
+
+  GenerationContext getContext() {
+    return context;
+  }
+
+  ModelSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  CountingOutputSink getSink() {
+    return sink;
+  }
+
+  GenerationStats getStats() {
+    return stats;
+  }
+
+  GenerationProgress getProgress() {
+    return progress;
+  }
+
+  void addFailure(GenerationFailure failure) {
+    failures.add(failure);
+  }
+
+  List<GenerationFailure> getFailures() {
+    return List.copyOf(failures);
+  }
+
+  /**
+   * Reuse the outputs of a previous run whose units are unchanged
+   */
+  void enableIncremental(Path targetRoot, GenerationManifest previousManifest) {
+    this.targetRoot = targetRoot;
+    this.previousManifest = previousManifest;
+    this.manifest = new GenerationManifest();
+    this.variablesFingerprint = Hashing.sha256(context.getVariables());
+  }
+
+  boolean isIncremental() {
+    return manifest != null;
+  }
+
+  /**
+   * Fingerprint of a unit from the hash of its template file and the inputs it depends on
+   */
+  String fingerprint(String templateFileHash, Collection<?> modelOrEnumClasses) {
+    StringBuilder sb = new StringBuilder(templateFileHash).append('\n').append(variablesFingerprint);
+    for (Object modelOrEnumClass : modelOrEnumClasses) {
+      sb.append('\n').append(snapshot.fingerprint(modelOrEnumClass));
+    }
+    return Hashing.sha256(sb.toString());
+  }
+
+  /**
+   * Get the outputs of an unchanged unit from the previous run, or {@code null} when the unit must be generated again
+   */
+  List<String> reuseOutputs(String unit, String fingerprint) {
+    GenerationManifest.Entry previous = previousManifest.get(unit);
+    if (previous == null || !previous.fingerprint().equals(fingerprint)) {
+      return null;
+    }
+    for (String output : previous.outputs()) {
+      if (!Files.exists(targetRoot.resolve(output))) {
+        return null;
+      }
+    }
+    manifest.put(unit, previous);
+    stats.addFilesReused(previous.outputs().size());
+    return previous.outputs();
+  }
+
+  /**
+   * @param outputs output paths relative to the output root
+   */
+  void recordOutputs(String unit, String fingerprint, List<String> outputs) {
+    manifest.put(unit, new GenerationManifest.Entry(fingerprint, List.copyOf(outputs)));
+  }
+
+  /**
+   * Delete outputs that no unit produced in this run, e.g. of removed models, and store the new manifest
+   */
+  void finishIncremental() throws IOException {
+    Set<String> staleOutputs = new HashSet<>(previousManifest.getOutputs());
+    staleOutputs.removeAll(manifest.getOutputs());
+    for (String staleOutput : staleOutputs) {
+      Files.deleteIfExists(targetRoot.resolve(staleOutput));
+    }
+    manifest.store(targetRoot);
+  }
+
+}
@@ -0,0 +1,138 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the phase timings of a single code generation, phases may be recorded from several threads
+ *
+ * @author cjbi
+ */
+class GenerationStats {
+
+  static final String MERGE = "merge";
+  static final String SNAPSHOT = "snapshot";
+  static final String ADMISSION = "admission";
+  static final String BUILD_CONTEXT = "buildContext";
+  static final String WALK = "walk";
+  static final String COMPILE = "compile";
+  static final String GENERATOR = "generator";
+  static final String COPY = "copy";
+  static final String RENDER = "render";
+
+  /**
+   * Phases that run within other phases, they are left out of the total
+   */
+  private static final Set<String> NESTED_PHASES = Set.of(RENDER);
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final Stopwatch total = Stopwatch.start();
+  private final Map<String, Phase> phases = new LinkedHashMap<>();
+  private final AtomicInteger filesReused = new AtomicInteger();
+
+  /**
+   * Add the time measured by the stopwatch to a phase, must be called on the thread that started it
+   *
+   * @param name template file of a generator, {@code null} for the other phases
+   */
+  void record(String phase, String name, Stopwatch stopwatch) {
+    long wallNanos = stopwatch.wallNanos();
+    long cpuNanos = stopwatch.cpuNanos();
+    synchronized (phases) {
+      Phase timing = phases.computeIfAbsent(phase + ":" + name, key -> new Phase(phase, name));
+      timing.count++;
+      timing.wallNanos += wallNanos;
+      if (cpuNanos < 0) {
+        timing.cpuUnavailable = true;
+      } else {
+        timing.cpuNanos += cpuNanos;
+      }
+    }
+  }
+
+  void addFilesReused(int count) {
+    filesReused.addAndGet(count);
+  }
+
+  GenerationReport toReport(String datasourceName, String templateName, CountingOutputSink sink,
+                            List<GenerationFailure> failures) {
+    List<GenerationReport.PhaseTiming> timings = new ArrayList<>();
+    long cpuNanos = 0;
+    boolean cpuUnavailable = false;
+    synchronized (phases) {
+      for (Phase phase : phases.values()) {
+        timings.add(new GenerationReport.PhaseTiming(phase.phase, phase.name, phase.count,
+          Duration.ofNanos(phase.wallNanos), phase.cpuUnavailable ? null : Duration.ofNanos(phase.cpuNanos)));
+        if (!NESTED_PHASES.contains(phase.phase)) {
+          cpuNanos += phase.cpuNanos;
+          cpuUnavailable |= phase.cpuUnavailable;
+        }
+      }
+    }
+    return new GenerationReport(datasourceName, templateName, Duration.ofNanos(total.wallNanos()),
+      cpuUnavailable ? null : Duration.ofNanos(cpuNanos), List.copyOf(timings), sink.getFiles(), filesReused.get(),
+      sink.getBytes(), List.copyOf(failures));
+  }
+
+  private static class Phase {
+    private final String phase;
+    private final String name;
+    private int count;
+    private long wallNanos;
+    private long cpuNanos;
+    private boolean cpuUnavailable;
+
+    private Phase(String phase, String name) {
+      this.phase = phase;
+      this.name = name;
+    }
+  }
+
+  /**
+   * Measures wall and CPU time of the current thread from its start. The JVM does not measure the CPU time of
+   * virtual threads, a stopwatch started on one reports it as unavailable.
+   */
+  static final class Stopwatch {
+
+    private final long wallStart;
+    private final long cpuStart;
+
+    private Stopwatch() {
+      this.wallStart = System.nanoTime();
+      this.cpuStart = currentThreadCpuTime();
+    }
+
+    static Stopwatch start() {
+      return new Stopwatch();
+    }
+
+    long wallNanos() {
+      return System.nanoTime() - wallStart;
+    }
+
+    /**
+     * @return CPU time, negative when it is not available on this thread
+     */
+    long cpuNanos() {
+      return cpuStart < 0 ? -1 : currentThreadCpuTime() - cpuStart;
+    }
+
+    private static long currentThreadCpuTime() {
+      if (Thread.currentThread().isVirtual()) {
+        return -1;
+      }
+      // 0 when the JVM does not measure thread CPU time, the report then shows no CPU time
+      return THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled()
+        ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+  }
+
+}
@@ -0,0 +1,183 @@
+package tech.wetech.flexmodel.codegen;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.transform.CompileStatic;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Cache of compiled Groovy generator classes.
+ * <p>
+ * Entries are keyed by template name and generator path, and remember the hash of the source they were compiled
+ * from, so a generator is only compiled again when its source changes or the entry is invalidated.
+ * <p>
+ * The generators of a template are compiled by a class loader of their own. When a source changes or the template
+ * is invalidated, the loader and all classes of the template are dropped together, so they can be unloaded
+ * instead of piling up in Metaspace.
+ * <p>
+ * Templates may be compiled statically, as if every generator was annotated with {@link CompileStatic}. A generator
+ * that does not compile statically, e.g. because it relies on dynamic typing, falls back to the class precompiled at
+ * build time when there is one, and is compiled dynamically otherwise.
+ *
+ * @author cjbi
+ */
+class GeneratorClassCache {
+
+  private final Logger log = LoggerFactory.getLogger(GeneratorClassCache.class);
+
+  private final ClassLoader parent;
+
+  private final Predicate<String> staticCompilation;
+
+  private final Map<String, TemplateScope> scopes = new ConcurrentHashMap<>();
+
+  /**
+   * @param parent            parent of the template class loaders
+   * @param staticCompilation whether the generators of a template, given its name, are compiled statically
+   */
+  GeneratorClassCache(ClassLoader parent, Predicate<String> staticCompilation) {
+    this.parent = parent;
+    this.staticCompilation = staticCompilation;
+  }
+
+  /**
+   * Get the compiled generator class for the given source file, compiling it on a cache miss
+   */
+  Class<?> getGeneratorClass(String templateName, Path path) throws IOException {
+    return getGeneratorClass(templateName, path, null);
+  }
+
+  /**
+   * @param precompiled class compiled dynamically at build time from the same source, used when static compilation
+   *                    fails, may be {@code null}
+   */
+  Class<?> getGeneratorClass(String templateName, Path path, Class<?> precompiled) throws IOException {
+    String source = Files.readString(path);
+    String hash = Hashing.sha256(source);
+    String key = path.toString();
+    TemplateScope scope = getScope(templateName);
+    CompiledGenerator cached = scope.generators().get(key);
+    if (cached != null && !cached.hash().equals(hash)) {
+      // The previous version stays loaded while the scope is alive, start a new one
+      invalidate(templateName, scope);
+      scope = getScope(templateName);
+    }
+    TemplateScope compilingScope = scope;
+    CompiledGenerator compiled = scope.generators().compute(key, (k, current) -> {
+      if (current != null && current.hash().equals(hash)) {
+        return current;
+      }
+      return compile(compilingScope, hash, source, path, precompiled);
+    });
+    return compiled.generatorClass();
+  }
+
+  private CompiledGenerator compile(TemplateScope scope, String hash, String source, Path path,
+                                    Class<?> precompiled) {
+    String fileName = path.getFileName().toString();
+    if (scope.staticLoader() != null) {
+      try {
+        return new CompiledGenerator(hash, scope.staticLoader().parseClass(source, fileName), true);
+      } catch (CompilationFailedException e) {
+        if (precompiled != null) {
+          log.warn("Static compilation failed, using the precompiled class: {}, cause: {}", path, e.getMessage());
+          return new CompiledGenerator(hash, precompiled, false);
+        }
+        log.warn("Static compilation failed, compiling dynamically: {}, cause: {}", path, e.getMessage());
+      }
+    }
+    return new CompiledGenerator(hash, scope.dynamicLoader().parseClass(source, fileName), false);
+  }
+
+  private TemplateScope getScope(String templateName) {
+    return scopes.computeIfAbsent(templateName, name -> new TemplateScope(new GroovyClassLoader(parent),
+      staticCompilation.test(name) ? new GroovyClassLoader(parent, staticConfiguration()) : null,
+      new ConcurrentHashMap<>()));
+  }
+
+  private static CompilerConfiguration staticConfiguration() {
+    CompilerConfiguration configuration = new CompilerConfiguration();
+    configuration.addCompilationCustomizers(new ASTTransformationCustomizer(CompileStatic.class));
+    return configuration;
+  }
+
+  /**
+   * Drop all compiled generators of the given template together with their class loader
+   */
+  void invalidate(String templateName) {
+    TemplateScope scope = scopes.get(templateName);
+    if (scope != null) {
+      invalidate(templateName, scope);
+    }
+  }
+
+  void invalidateAll() {
+    scopes.keySet().forEach(this::invalidate);
+  }
+
+  private void invalidate(String templateName, TemplateScope scope) {
+    if (scopes.remove(templateName, scope)) {
+      // Generations still running keep their classes, the loaders are collected once they finish
+      close(scope.dynamicLoader());
+      close(scope.staticLoader());
+    }
+  }
+
+  private static void close(GroovyClassLoader loader) {
+    if (loader == null) {
+      return;
+    }
+    loader.clearCache();
+    try {
+      loader.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  /**
+   * Number of cached generators
+   */
+  int size() {
+    return scopes.values().stream().mapToInt(scope -> scope.generators().size()).sum();
+  }
+
+  /**
+   * Number of cached generators that compiled statically
+   */
+  int getStaticallyCompiledCount() {
+    return scopes.values().stream().mapToInt(scope -> (int) scope.generators().values().stream()
+      .filter(CompiledGenerator::staticallyCompiled).count()).sum();
+  }
+
+  /**
+   * Number of classes loaded for generators, including closures and inner classes
+   */
+  int getLoadedClassCount() {
+    return scopes.values().stream().mapToInt(scope -> scope.dynamicLoader().getLoadedClasses().length
+      + (scope.staticLoader() != null ? scope.staticLoader().getLoadedClasses().length : 0)).sum();
+  }
+
+  /**
+   * @param staticLoader loader compiling statically, {@code null} when the template is compiled dynamically
+   */
+  private record TemplateScope(GroovyClassLoader dynamicLoader, GroovyClassLoader staticLoader,
+                               Map<String, CompiledGenerator> generators) {
+  }
+
+  /**
+   * @param staticallyCompiled {@code false} when compiled dynamically, also after static compilation failed
+   */
+  private record CompiledGenerator(String hash, Class<?> generatorClass, boolean staticallyCompiled) {
+  }
+
+}
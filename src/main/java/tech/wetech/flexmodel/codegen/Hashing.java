@@ -0,0 +1,59 @@
+package tech.wetech.flexmodel.codegen;
+
+import tech.wetech.flexmodel.JsonUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Content hashing helpers used for cache keys and fingerprints
+ *
+ * @author cjbi
+ */
+final class Hashing {
+
+  private Hashing() {
+  }
+
+  static String sha256(String content) {
+    return sha256(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static String sha256(byte[] content) {
+    return HexFormat.of().formatHex(newDigest().digest(content));
+  }
+
+  /**
+   * Hash of template variables, independent of map iteration order. The variables are hashed as JSON, so values
+   * containing separators cannot be mistaken for other entries.
+   */
+  static String sha256(Map<String, ?> variables) {
+    return sha256(JsonUtils.toJsonString(canonicalize(variables)));
+  }
+
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  private static Object canonicalize(Object value) {
+    if (value instanceof Map<?, ?> map) {
+      Map<String, Object> sorted = new TreeMap<>();
+      map.forEach((k, v) -> sorted.put(String.valueOf(k), canonicalize(v)));
+      return sorted;
+    }
+    if (value instanceof Collection<?> collection) {
+      return collection.stream().map(Hashing::canonicalize).toList();
+    }
+    return value;
+  }
+
+}
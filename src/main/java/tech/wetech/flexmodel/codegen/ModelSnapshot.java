@@ -0,0 +1,120 @@
+package tech.wetech.flexmodel.codegen;
+
+import tech.wetech.flexmodel.JsonUtils;
+import tech.wetech.flexmodel.model.EntityDefinition;
+import tech.wetech.flexmodel.model.EnumDefinition;
+import tech.wetech.flexmodel.model.SchemaObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Model and enum classes built from the models of a datasource, shared by all generations against the same schema
+ * version. The classes are shared between requests, generators must not modify them.
+ *
+ * @author cjbi
+ */
+class ModelSnapshot {
+
+  private final String schemaVersion;
+  private final List<ModelClass> modelClasses;
+  private final List<EnumClass> enumClasses;
+  private final Map<Object, String> fingerprints;
+
+  private ModelSnapshot(String schemaVersion, List<ModelClass> modelClasses, List<EnumClass> enumClasses,
+                        Map<Object, String> fingerprints) {
+    this.schemaVersion = schemaVersion;
+    this.modelClasses = List.copyOf(modelClasses);
+    this.enumClasses = List.copyOf(enumClasses);
+    this.fingerprints = fingerprints;
+  }
+
+  /**
+   * @param models       model definitions of the datasource
+   * @param modelHashes  hashes of the model definitions, in the same order
+   */
+  static ModelSnapshot build(String datasource, String packageName, List<SchemaObject> models, List<String> modelHashes) {
+    List<ModelClass> modelClasses = new ArrayList<>();
+    List<EnumClass> enumClasses = new ArrayList<>();
+    Map<Object, String> fingerprints = new IdentityHashMap<>();
+    List<Map<String, Object>> definitions = models.stream()
+      .map(model -> JsonUtils.parseToMap(JsonUtils.toJsonString(model)))
+      .toList();
+    Map<String, String> hashesByName = new HashMap<>();
+    for (int i = 0; i < models.size(); i++) {
+      if (definitions.get(i).get("name") instanceof String name) {
+        hashesByName.put(name, modelHashes.get(i));
+      }
+    }
+    for (int i = 0; i < models.size(); i++) {
+      SchemaObject model = models.get(i);
+      String fingerprint = fingerprint(definitions.get(i), modelHashes.get(i), hashesByName);
+      if (model instanceof EntityDefinition entity) {
+        ModelClass modelClass = ModelClass.buildModelClass("^fs_", packageName, datasource, entity);
+        modelClasses.add(modelClass);
+        fingerprints.put(modelClass, fingerprint);
+      } else if (model instanceof EnumDefinition enumDef) {
+        EnumClass enumClass = EnumClass.buildEnumClass(packageName, datasource, enumDef);
+        enumClasses.add(enumClass);
+        fingerprints.put(enumClass, fingerprint);
+      }
+    }
+    return new ModelSnapshot(Hashing.sha256(String.join("\n", modelHashes)), modelClasses, enumClasses, fingerprints);
+  }
+
+  /**
+   * Hash of the definition together with the definitions its fields reference, e.g. the target of a relation or the
+   * enum of a field, as generated code also shows their names and types
+   */
+  private static String fingerprint(Map<String, Object> definition, String hash, Map<String, String> hashesByName) {
+    Set<String> referenced = new TreeSet<>();
+    if (definition.get("fields") instanceof List<?> fields) {
+      for (Object field : fields) {
+        if (field instanceof Map<?, ?> fieldDefinition && fieldDefinition.get("from") instanceof String from
+            && hashesByName.containsKey(from)) {
+          referenced.add(from);
+        }
+      }
+    }
+    if (referenced.isEmpty()) {
+      return hash;
+    }
+    StringBuilder sb = new StringBuilder(hash);
+    for (String name : referenced) {
+      sb.append('\n').append(name).append('=').append(hashesByName.get(name));
+    }
+    return Hashing.sha256(sb.toString());
+  }
+
+  /**
+   * Hash over all model definitions the snapshot was built from
+   */
+  String getSchemaVersion() {
+    return schemaVersion;
+  }
+
+  List<ModelClass> getModelClasses() {
+    return modelClasses;
+  }
+
+  List<EnumClass> getEnumClasses() {
+    return enumClasses;
+  }
+
+  /**
+   * Hash of the definition the given model or enum class was built from and of the definitions it references
+   */
+  String fingerprint(Object modelOrEnumClass) {
+    String fingerprint = fingerprints.get(modelOrEnumClass);
+    if (fingerprint == null) {
+      throw new IllegalArgumentException("Not part of this snapshot: " + modelOrEnumClass);
+    }
+    return fingerprint;
+  }
+
+}
@@ -0,0 +1,57 @@
+package tech.wetech.flexmodel.codegen;
+
+import tech.wetech.flexmodel.JsonUtils;
+import tech.wetech.flexmodel.model.SchemaObject;
+import tech.wetech.flexmodel.session.SessionFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of model snapshots per datasource and package name.
+ * <p>
+ * The definitions are hashed on every lookup, and the snapshot is rebuilt when the hash of the schema changed. Hashing
+ * is far cheaper than building the classes, and it also detects definitions that were modified in place.
+ *
+ * @author cjbi
+ */
+class ModelSnapshotCache {
+
+  private final SessionFactory sessionFactory;
+
+  private final Map<Key, ModelSnapshot> snapshots = new ConcurrentHashMap<>();
+
+  ModelSnapshotCache(SessionFactory sessionFactory) {
+    this.sessionFactory = sessionFactory;
+  }
+
+  ModelSnapshot getSnapshot(String datasource, String packageName) {
+    List<SchemaObject> models = sessionFactory.getModels(datasource);
+    List<String> modelHashes = models.stream()
+      .map(model -> Hashing.sha256(JsonUtils.toJsonString(model)))
+      .toList();
+    String schemaVersion = Hashing.sha256(String.join("\n", modelHashes));
+    return snapshots.compute(new Key(datasource, packageName), (key, current) -> {
+      if (current != null && current.getSchemaVersion().equals(schemaVersion)) {
+        return current;
+      }
+      return ModelSnapshot.build(datasource, packageName, models, modelHashes);
+    });
+  }
+
+  /**
+   * Drop the snapshots of a datasource
+   */
+  void invalidate(String datasource) {
+    snapshots.keySet().removeIf(key -> key.datasource().equals(datasource));
+  }
+
+  void invalidateAll() {
+    snapshots.clear();
+  }
+
+  private record Key(String datasource, String packageName) {
+  }
+
+}
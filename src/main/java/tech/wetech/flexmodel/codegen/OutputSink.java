@@ -0,0 +1,38 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Destination of generated files. Paths are relative to the output root and use {@code /} as separator.
+ * Implementations must accept calls from several worker threads.
+ *
+ * @author cjbi
+ */
+interface OutputSink {
+
+  void createDirectory(String path) throws IOException;
+
+  void writeFile(String path, ContentWriter content) throws IOException;
+
+  /**
+   * Copy a file as it is, without decoding its content
+   */
+  default void copyFile(String path, Path source) throws IOException {
+    writeFile(path, out -> Files.copy(source, out));
+  }
+
+  /**
+   * Complete the output once every file has been written
+   */
+  default void finish() throws IOException {
+  }
+
+  @FunctionalInterface
+  interface ContentWriter {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+}
@@ -0,0 +1,262 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Owns the per-request output directories below the output root.
+ * <p>
+ * Every request gets its own directory. Directories are deleted once they were not accessed for the configured
+ * time to live, and the least recently accessed ones are deleted while the total size exceeds the quota. Sizes are
+ * measured and directories deleted on a background thread, generation never waits for cleanup.
+ * <p>
+ * Each store writes below a directory of its own, created under the root and locked for as long as the store is
+ * open, so stores of several services or processes can share the root. On start the store adopts the store
+ * directories nobody holds the lock of anymore, i.e. those a previous process left behind, and deletes them like
+ * its own outputs. Other directories below the root are left alone.
+ *
+ * @author cjbi
+ */
+class OutputStore implements AutoCloseable {
+
+  private static final String STORE_PREFIX = "store-";
+  private static final String LOCK_FILE = ".lock";
+
+  private final Logger log = LoggerFactory.getLogger(OutputStore.class);
+
+  private final Path root;
+  private final Path storeDirectory;
+  private final FileChannel lockChannel;
+  private final long ttlMillis;
+  private final long quotaBytes;
+  private final AtomicLong totalBytes = new AtomicLong();
+  private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService cleaner;
+
+  OutputStore(Path root, Duration ttl, long quotaBytes, Duration cleanupInterval) {
+    this.root = root;
+    try {
+      this.storeDirectory = Files.createTempDirectory(Files.createDirectories(root), STORE_PREFIX);
+      this.lockChannel = FileChannel.open(storeDirectory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+      lock(lockChannel);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.ttlMillis = ttl.toMillis();
+    this.quotaBytes = quotaBytes;
+    this.cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "codegen-output-cleaner");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Store directories left by a previous process are adopted, so they expire like the outputs
+    cleaner.execute(this::adoptExisting);
+    cleaner.scheduleWithFixedDelay(this::cleanup, cleanupInterval.toMillis(), cleanupInterval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Create a new, unique output directory, creation fails rather than reusing an existing directory
+   */
+  Path newDirectory() {
+    Path directory;
+    try {
+      directory = Files.createTempDirectory(storeDirectory, "output-");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    entries.put(directory, new Entry(directory, System.currentTimeMillis()));
+    return directory;
+  }
+
+  /**
+   * Mark the directory as complete, it becomes eligible for cleanup once it has been measured
+   */
+  void complete(Path directory) {
+    Entry entry = entries.get(directory);
+    if (entry != null) {
+      cleaner.execute(() -> {
+        entry.size = measure(directory);
+        totalBytes.addAndGet(entry.size);
+        entry.completed = true;
+        if (totalBytes.get() > quotaBytes) {
+          cleanup();
+        }
+      });
+    }
+  }
+
+  /**
+   * Record an access, e.g. when a cached output is handed out again
+   */
+  void touch(Path directory) {
+    Entry entry = entries.get(directory);
+    if (entry != null) {
+      entry.lastAccess = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Delete a directory right away, e.g. the output of a failed generation
+   */
+  void discard(Path directory) {
+    Entry entry = entries.remove(directory);
+    if (entry != null) {
+      cleaner.execute(() -> delete(entry));
+    }
+  }
+
+  long getTotalBytes() {
+    return totalBytes.get();
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * Delete expired directories, then the least recently accessed ones while the quota is exceeded
+   */
+  void cleanup() {
+    long now = System.currentTimeMillis();
+    List<Entry> completed = entries.values().stream()
+      .filter(entry -> entry.completed)
+      .sorted(Comparator.comparingLong(entry -> entry.lastAccess))
+      .toList();
+    for (Entry entry : completed) {
+      boolean expired = now - entry.lastAccess >= ttlMillis;
+      if (!expired && totalBytes.get() <= quotaBytes) {
+        break;
+      }
+      if (entries.remove(entry.directory, entry)) {
+        totalBytes.addAndGet(-entry.size);
+        delete(entry);
+      }
+    }
+  }
+
+  private void adoptExisting() {
+    try (Stream<Path> stream = Files.list(root)) {
+      for (Path directory : stream.filter(OutputStore::isStoreDirectory).toList()) {
+        if (directory.equals(storeDirectory) || isLocked(directory)) {
+          continue;
+        }
+        Entry entry = new Entry(directory, Files.getLastModifiedTime(directory).toMillis());
+        if (entries.putIfAbsent(directory, entry) == null) {
+          entry.size = measure(directory);
+          totalBytes.addAndGet(entry.size);
+          entry.completed = true;
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Failed to list store directories under {}", root, e);
+    }
+  }
+
+  private static boolean isStoreDirectory(Path directory) {
+    return Files.isDirectory(directory) && directory.getFileName().toString().startsWith(STORE_PREFIX);
+  }
+
+  /**
+   * Whether a running store owns the directory, directories whose lock cannot be checked count as owned
+   */
+  private static boolean isLocked(Path directory) {
+    Path lockFile = directory.resolve(LOCK_FILE);
+    if (!Files.exists(lockFile)) {
+      // Still being created, or not a store directory
+      return true;
+    }
+    try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+      FileLock lock = channel.tryLock();
+      if (lock == null) {
+        return true;
+      }
+      lock.release();
+      return false;
+    } catch (OverlappingFileLockException e) {
+      // Held by another store of this process
+      return true;
+    } catch (IOException | UnsupportedOperationException e) {
+      return true;
+    }
+  }
+
+  private static void lock(FileChannel channel) throws IOException {
+    try {
+      if (channel.tryLock() == null) {
+        throw new IOException("Store directory is locked by another process");
+      }
+    } catch (UnsupportedOperationException e) {
+      // The file system has no locks, the directory name is unique all the same
+    }
+  }
+
+  private long measure(Path directory) {
+    try (Stream<Path> stream = Files.walk(directory)) {
+      return stream.filter(Files::isRegularFile).mapToLong(path -> {
+        try {
+          return Files.size(path);
+        } catch (IOException e) {
+          return 0;
+        }
+      }).sum();
+    } catch (IOException e) {
+      log.warn("Failed to measure output directory {}", directory, e);
+      return 0;
+    }
+  }
+
+  private void delete(Entry entry) {
+    try (Stream<Path> stream = Files.walk(entry.directory)) {
+      for (Path path : stream.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(path);
+      }
+      log.debug("Deleted output directory {}", entry.directory);
+    } catch (IOException e) {
+      log.warn("Failed to delete output directory {}", entry.directory, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    cleaner.shutdownNow();
+    try {
+      // Releases the lock, the outputs are adopted by the next store on this root
+      lockChannel.close();
+    } catch (IOException e) {
+      log.warn("Failed to release the lock of {}", storeDirectory, e);
+    }
+  }
+
+  private static class Entry {
+    private final Path directory;
+    private volatile long lastAccess;
+    private volatile long size;
+    private volatile boolean completed;
+
+    private Entry(Path directory, long lastAccess) {
+      this.directory = directory;
+      this.lastAccess = lastAccess;
+    }
+  }
+
+}
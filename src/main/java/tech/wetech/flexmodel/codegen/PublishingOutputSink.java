@@ -0,0 +1,59 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Publishes every generated file to the subscribers of a {@link SubmissionPublisher}.
+ * <p>
+ * Submitting blocks while a subscriber's buffer is full, so a slow subscriber holds back the generation instead of
+ * files piling up in memory. The blocked thread is the one that wrote the file: the request thread or, with a
+ * parallelism above one, a thread of the shared worker pool. A subscriber that stops requesting without cancelling
+ * keeps these threads, and the worker pool is shared with all other generations of the service. Directories are
+ * implied by the file paths and not published.
+ *
+ * @author cjbi
+ */
+class PublishingOutputSink implements OutputSink {
+
+  private final SubmissionPublisher<GeneratedFile> publisher;
+  private final String datasourceName;
+  private final String templateName;
+
+  PublishingOutputSink(SubmissionPublisher<GeneratedFile> publisher, String datasourceName, String templateName) {
+    this.publisher = publisher;
+    this.datasourceName = datasourceName;
+    this.templateName = templateName;
+  }
+
+  @Override
+  public void createDirectory(String path) {
+  }
+
+  @Override
+  public void writeFile(String path, ContentWriter content) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    content.writeTo(buffer);
+    publish(path, buffer.toByteArray());
+  }
+
+  @Override
+  public void copyFile(String path, Path source) throws IOException {
+    publish(path, Files.readAllBytes(source));
+  }
+
+  private void publish(String path, byte[] bytes) {
+    publisher.submit(new GeneratedFile(path, datasourceName, templateName, bytes.length,
+      ByteBuffer.wrap(bytes).asReadOnlyBuffer()));
+  }
+
+  @Override
+  public String toString() {
+    return "publisher";
+  }
+
+}
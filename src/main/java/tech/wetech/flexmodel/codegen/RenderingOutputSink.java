@@ -0,0 +1,86 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Renders file content on a bounded pool and writes it through another sink on the calling thread.
+ * <p>
+ * Used when file tasks run on virtual threads: the CPU-bound rendering cannot occupy more threads than the render
+ * pool has, while the blocking writes park only the virtual thread.
+ *
+ * @author cjbi
+ */
+class RenderingOutputSink implements OutputSink {
+
+  private final OutputSink delegate;
+  private final Executor renderExecutor;
+  private final GenerationStats stats;
+
+  /**
+   * @param stats receives the {@link GenerationStats#RENDER} timings, measured on the render pool where CPU time
+   *              is available
+   */
+  RenderingOutputSink(OutputSink delegate, Executor renderExecutor, GenerationStats stats) {
+    this.delegate = delegate;
+    this.renderExecutor = renderExecutor;
+    this.stats = stats;
+  }
+
+  @Override
+  public void createDirectory(String path) throws IOException {
+    delegate.createDirectory(path);
+  }
+
+  @Override
+  public void writeFile(String path, ContentWriter content) throws IOException {
+    ByteArrayOutputStream buffer;
+    try {
+      buffer = CompletableFuture.supplyAsync(() -> render(content), renderExecutor).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException cause) {
+        throw cause.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+    delegate.writeFile(path, buffer::writeTo);
+  }
+
+  private ByteArrayOutputStream render(ContentWriter content) {
+    GenerationStats.Stopwatch stopwatch = GenerationStats.Stopwatch.start();
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try {
+      content.writeTo(buffer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      stats.record(GenerationStats.RENDER, null, stopwatch);
+    }
+    return buffer;
+  }
+
+  @Override
+  public void copyFile(String path, Path source) throws IOException {
+    // Nothing to render, the copy is I/O only
+    delegate.copyFile(path, source);
+  }
+
+  @Override
+  public void finish() throws IOException {
+    delegate.finish();
+  }
+
+  @Override
+  public String toString() {
+    return delegate.toString();
+  }
+
+}
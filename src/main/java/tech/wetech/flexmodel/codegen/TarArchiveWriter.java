@@ -0,0 +1,95 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal ustar writer for regular files and directories
+ *
+ * @author cjbi
+ */
+class TarArchiveWriter {
+
+  private static final int BLOCK_SIZE = 512;
+  private static final int NAME_LENGTH = 100;
+  private static final int PREFIX_LENGTH = 155;
+
+  private final OutputStream out;
+
+  TarArchiveWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  void writeDirectory(String path, long modifiedTime) throws IOException {
+    out.write(header(path + "/", 0, modifiedTime, '5', 0755));
+  }
+
+  void writeFile(String path, byte[] content, long modifiedTime) throws IOException {
+    out.write(header(path, content.length, modifiedTime, '0', 0644));
+    out.write(content);
+    int padding = (BLOCK_SIZE - content.length % BLOCK_SIZE) % BLOCK_SIZE;
+    out.write(new byte[padding]);
+  }
+
+  /**
+   * Write the two empty blocks marking the end of the archive
+   */
+  void finish() throws IOException {
+    out.write(new byte[BLOCK_SIZE * 2]);
+  }
+
+  private byte[] header(String path, long size, long modifiedTime, char type, int mode) throws IOException {
+    byte[] header = new byte[BLOCK_SIZE];
+    byte[] name = path.getBytes(StandardCharsets.UTF_8);
+    byte[] prefix = new byte[0];
+    if (name.length > NAME_LENGTH) {
+      // Split at a separator, the part after it goes to the name field and the part before it to the prefix field
+      int split = path.lastIndexOf('/', path.length() - 2);
+      while (split > 0 && path.substring(split + 1).getBytes(StandardCharsets.UTF_8).length <= NAME_LENGTH) {
+        prefix = path.substring(0, split).getBytes(StandardCharsets.UTF_8);
+        name = path.substring(split + 1).getBytes(StandardCharsets.UTF_8);
+        if (prefix.length <= PREFIX_LENGTH) {
+          break;
+        }
+        split = path.lastIndexOf('/', split - 1);
+      }
+      if (name.length > NAME_LENGTH || prefix.length > PREFIX_LENGTH) {
+        throw new IOException("Path is too long for a tar entry: " + path);
+      }
+    }
+    System.arraycopy(name, 0, header, 0, name.length);
+    octal(header, 100, 8, mode);
+    octal(header, 108, 8, 0);
+    octal(header, 116, 8, 0);
+    octal(header, 124, 12, size);
+    octal(header, 136, 12, modifiedTime / 1000);
+    header[156] = (byte) type;
+    System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+    header[263] = '0';
+    header[264] = '0';
+    System.arraycopy(prefix, 0, header, 345, prefix.length);
+
+    // Checksum is computed with the checksum field filled with spaces
+    Arrays.fill(header, 148, 156, (byte) ' ');
+    long checksum = 0;
+    for (byte b : header) {
+      checksum += b & 0xff;
+    }
+    octal(header, 148, 7, checksum);
+    return header;
+  }
+
+  private void octal(byte[] header, int offset, int length, long value) {
+    String digits = Long.toOctalString(value);
+    if (digits.length() > length - 1) {
+      throw new IllegalArgumentException("Value does not fit in tar header field: " + value);
+    }
+    String padded = "0".repeat(length - 1 - digits.length()) + digits;
+    byte[] bytes = padded.getBytes(StandardCharsets.US_ASCII);
+    System.arraycopy(bytes, 0, header, offset, bytes.length);
+    header[offset + length - 1] = 0;
+  }
+
+}
@@ -0,0 +1,141 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Immutable listing of a template directory, built once so generation does not walk the template file system
+ *
+ * @param name      template name
+ * @param directory template root directory
+ * @param files     template files, directories precede the files inside them
+ * @author cjbi
+ */
+record TemplateIndex(String name, Path directory, List<TemplateFile> files) {
+
+  private static final String FLEXMODEL_DIRECTORY = ".flexmodel";
+
+  static TemplateIndex build(String name, Path directory) throws IOException {
+    List<Path> paths;
+    try (Stream<Path> stream = Files.walk(directory)) {
+      // Skip .flexmodel directory and its contents, sort to keep the output order stable
+      paths = stream.filter(path -> !isFlexmodelPath(directory, path)).sorted().toList();
+    }
+    return index(name, directory, paths);
+  }
+
+  /**
+   * Build the index from a known listing, e.g. a {@link TemplateManifest}, without walking the directory
+   *
+   * @param relativePaths files and directories relative to the template directory, in walk order
+   */
+  static TemplateIndex build(String name, Path directory, Collection<String> relativePaths) throws IOException {
+    List<Path> paths = new ArrayList<>();
+    paths.add(directory);
+    for (String relativePath : relativePaths) {
+      Path path = directory.resolve(relativePath);
+      if (!isFlexmodelPath(directory, path)) {
+        paths.add(path);
+      }
+    }
+    return index(name, directory, paths);
+  }
+
+  private static TemplateIndex index(String name, Path directory, List<Path> paths) throws IOException {
+    List<TemplateFile> files = new ArrayList<>();
+    for (Path path : paths) {
+      String relativePath = relativize(directory, path);
+      if (Files.isDirectory(path)) {
+        files.add(new TemplateFile(path, relativePath, TemplateFileType.DIRECTORY,
+          TemplateText.compile(relativePath), null, null));
+        continue;
+      }
+      byte[] bytes = Files.readAllBytes(path);
+      if (relativePath.endsWith(".groovy")) {
+        // Generators write into the directory that contains them
+        String parent = relativePath.contains("/") ? relativePath.substring(0, relativePath.lastIndexOf('/')) : "";
+        files.add(new TemplateFile(path, relativePath, TemplateFileType.GENERATOR,
+          TemplateText.compile(parent), Hashing.sha256(bytes), null));
+      } else {
+        TemplateText content = isText(bytes) ? TemplateText.compile(new String(bytes, StandardCharsets.UTF_8)) : null;
+        if (content != null && content.hasPlaceholders()) {
+          files.add(new TemplateFile(path, relativePath, TemplateFileType.STATIC,
+            TemplateText.compile(relativePath), Hashing.sha256(bytes), content));
+        } else {
+          // Binary files and files without placeholders are copied as they are
+          files.add(new TemplateFile(path, relativePath, TemplateFileType.PASSTHROUGH,
+            TemplateText.compile(relativePath), Hashing.sha256(bytes), null));
+        }
+      }
+    }
+    return new TemplateIndex(name, directory, List.copyOf(files));
+  }
+
+  /**
+   * Whether the content is UTF-8 text, files with NUL bytes or malformed UTF-8 are treated as binary
+   */
+  private static boolean isText(byte[] bytes) {
+    for (byte b : bytes) {
+      if (b == 0) {
+        return false;
+      }
+    }
+    try {
+      StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT)
+        .decode(ByteBuffer.wrap(bytes));
+      return true;
+    } catch (CharacterCodingException e) {
+      return false;
+    }
+  }
+
+  private static String relativize(Path directory, Path path) {
+    return directory.relativize(path).toString().replace("\\", "/");
+  }
+
+  private static boolean isFlexmodelPath(Path directory, Path path) {
+    for (Path name : directory.relativize(path)) {
+      if (name.toString().equals(FLEXMODEL_DIRECTORY)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param path         source file
+   * @param relativePath source path relative to the template directory
+   * @param type         how the file is processed
+   * @param targetPath   target path relative to the output root, for generators the directory they write into
+   * @param hash         hash of the file content, {@code null} for directories
+   * @param content      compiled content of static files with placeholders, {@code null} otherwise
+   */
+  record TemplateFile(Path path, String relativePath, TemplateFileType type, TemplateText targetPath,
+                      String hash, TemplateText content) {
+  }
+
+  enum TemplateFileType {
+    DIRECTORY,
+    GENERATOR,
+    /**
+     * Text file with placeholders, rendered with the template variables
+     */
+    STATIC,
+    /**
+     * Binary file or text file without placeholders, copied byte for byte
+     */
+    PASSTHROUGH
+  }
+
+}
@@ -0,0 +1,172 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Listing of the templates below a template root, written at build time so a packaged root needs no directory
+ * scan. It records the template names, the files of each template, the default variables and the generators
+ * that were compiled at build time together with the hash of their source.
+ * <p>
+ * The build runs {@link #main(String[])} with the template root and the directory the generators were compiled to,
+ * {@link TemplateRoot#GENERATOR_CLASSES} inside the class output directory, to write the manifest.
+ *
+ * @author cjbi
+ */
+final class TemplateManifest {
+
+  static final String FILE_NAME = "template-manifest.properties";
+
+  private static final String SEPARATOR = "|";
+  private static final String VARIABLES_LOCATION = ".flexmodel/variables.json";
+  private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)", Pattern.MULTILINE);
+
+  private final Properties properties;
+
+  private TemplateManifest(Properties properties) {
+    this.properties = properties;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      throw new IllegalArgumentException("Usage: TemplateManifest <template root> <generator class directory>");
+    }
+    Path root = Paths.get(args[0]);
+    scan(root, Paths.get(args[1])).store(root);
+  }
+
+  /**
+   * Scan the template root, generators count as precompiled when their class exists in the class directory. All
+   * generators are compiled into one directory, so two generators compiling to the same class fail the scan.
+   */
+  static TemplateManifest scan(Path root, Path classesDirectory) throws IOException {
+    Properties properties = new Properties();
+    List<String> templateNames = new ArrayList<>();
+    Map<String, String> generators = new HashMap<>();
+    try (Stream<Path> stream = Files.list(root)) {
+      for (Path templateDir : stream.filter(Files::isDirectory).sorted().toList()) {
+        String templateName = templateDir.getFileName().toString();
+        templateNames.add(templateName);
+        Path variables = templateDir.resolve(VARIABLES_LOCATION);
+        if (Files.exists(variables)) {
+          properties.setProperty(templateName + ".variables", Files.readString(variables));
+        }
+        List<String> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(templateDir)) {
+          for (Path path : paths.sorted().toList()) {
+            String relativePath = templateDir.relativize(path).toString().replace("\\", "/");
+            if (relativePath.isEmpty()) {
+              continue;
+            }
+            files.add(relativePath);
+            if (relativePath.endsWith(".groovy")) {
+              byte[] source = Files.readAllBytes(path);
+              String className = className(path, new String(source, StandardCharsets.UTF_8));
+              String generator = templateName + "/" + relativePath;
+              String other = generators.putIfAbsent(className, generator);
+              if (other != null) {
+                throw new IllegalStateException("Generators " + other + " and " + generator
+                  + " both compile to class " + className);
+              }
+              if (Files.exists(classesDirectory.resolve(className.replace('.', '/') + ".class"))) {
+                properties.setProperty(templateName + ".generator." + relativePath,
+                  Hashing.sha256(source) + SEPARATOR + className);
+              }
+            }
+          }
+        }
+        properties.setProperty(templateName + ".files", String.join(SEPARATOR, files));
+      }
+    }
+    properties.setProperty("templates", String.join(SEPARATOR, templateNames));
+    return new TemplateManifest(properties);
+  }
+
+  /**
+   * Name of the class a generator script compiles to, its file name in the package the script declares
+   */
+  static String className(Path path, String source) {
+    String simpleName = path.getFileName().toString().replace(".groovy", "");
+    Matcher matcher = PACKAGE.matcher(source);
+    return matcher.find() ? matcher.group(1) + "." + simpleName : simpleName;
+  }
+
+  /**
+   * Load the manifest of a template root, {@code null} when the root has none
+   */
+  static TemplateManifest load(Path root) throws IOException {
+    Path file = root.resolve(FILE_NAME);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(file)) {
+      properties.load(reader);
+    }
+    return new TemplateManifest(properties);
+  }
+
+  void store(Path root) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(root.resolve(FILE_NAME))) {
+      properties.store(writer, "Generated at build time, do not edit");
+    }
+  }
+
+  List<String> getTemplateNames() {
+    return split(properties.getProperty("templates"));
+  }
+
+  /**
+   * Default variables as JSON, {@code null} when the template has none
+   */
+  String getVariables(String templateName) {
+    return properties.getProperty(templateName + ".variables");
+  }
+
+  /**
+   * Files and directories of the template relative to its directory, in walk order
+   */
+  List<String> getFiles(String templateName) {
+    return split(properties.getProperty(templateName + ".files"));
+  }
+
+  /**
+   * Class compiled at build time from the generator, {@code null} when there is none
+   */
+  PrecompiledGenerator getGenerator(String templateName, String relativePath) {
+    String value = properties.getProperty(templateName + ".generator." + relativePath);
+    if (value == null) {
+      return null;
+    }
+    int separator = value.indexOf(SEPARATOR);
+    return new PrecompiledGenerator(value.substring(0, separator), value.substring(separator + 1));
+  }
+
+  private static List<String> split(String value) {
+    if (value == null || value.isEmpty()) {
+      return List.of();
+    }
+    return Arrays.asList(value.split("\\" + SEPARATOR));
+  }
+
+  /**
+   * @param sourceHash hash of the source the class was compiled from
+   */
+  record PrecompiledGenerator(String sourceHash, String className) {
+  }
+
+}
@@ -0,0 +1,210 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A directory holding one subdirectory per template, either on the local file system or inside a jar.
+ * <p>
+ * Archives are immutable, so a {@link TemplateManifest} written at build time is trusted for them and replaces the
+ * directory scans. Directories are always scanned, as their files may change.
+ *
+ * @author cjbi
+ */
+class TemplateRoot implements AutoCloseable {
+
+  /**
+   * Resource directory the build compiles the bundled generators to, they are not on the classpath as classes
+   */
+  static final String GENERATOR_CLASSES = "META-INF/flexmodel/generators/";
+
+  private final Path path;
+
+  /**
+   * File system opened for a jar, closed together with the root
+   */
+  private final FileSystem ownedFileSystem;
+
+  private final TemplateManifest manifest;
+
+  /**
+   * Loader of the generator classes compiled at build time, {@code null} when they are not on the classpath
+   */
+  private final ClassLoader generatorClassLoader;
+
+  private TemplateRoot(Path path, FileSystem ownedFileSystem, TemplateManifest manifest,
+                       ClassLoader generatorClassLoader) {
+    this.path = path;
+    this.ownedFileSystem = ownedFileSystem;
+    this.manifest = manifest;
+    this.generatorClassLoader = generatorClassLoader;
+  }
+
+  /**
+   * Templates bundled on the classpath below the given resource directory
+   */
+  static TemplateRoot classpath(ClassLoader classLoader, String resourceName) {
+    URL resUrl = classLoader.getResource(resourceName);
+    if (resUrl == null) {
+      throw new IllegalStateException("Resource not found: " + resourceName);
+    }
+
+    try {
+      String protocol = resUrl.getProtocol();
+      if ("file".equalsIgnoreCase(protocol)) {
+        // When debugging in IDE, resources are in local file system, use default file system
+        return new TemplateRoot(Paths.get(resUrl.toURI()), null, null, null);
+      } else if ("jar".equalsIgnoreCase(protocol)) {
+        // In JAR package, need to create new file system
+        JarURLConnection jarCon = (JarURLConnection) resUrl.openConnection();
+        Path jarPath = Paths.get(jarCon.getJarFileURL().toURI());
+        FileSystem fileSystem = FileSystems.newFileSystem(jarPath, Map.of("create", "false"));
+        Path path = fileSystem.getPath("/" + resourceName);
+        // Generators precompiled by the build are packaged in the same jar
+        return new TemplateRoot(path, fileSystem, TemplateManifest.load(path),
+          new GeneratorClassLoader(classLoader));
+      } else {
+        throw new IllegalStateException("Unknown resource type: " + protocol);
+      }
+    } catch (URISyntaxException | IOException e) {
+      throw new RuntimeException("Failed to get template path", e);
+    }
+  }
+
+  /**
+   * Templates in an external directory, or in a jar or zip file. Inside an archive the templates are expected
+   * below the given resource directory, or at the top level when the archive has no such directory.
+   */
+  static TemplateRoot external(Path location, String resourceName) {
+    if (Files.isDirectory(location)) {
+      return new TemplateRoot(location, null, null, null);
+    }
+    if (!Files.isRegularFile(location)) {
+      throw new IllegalStateException("Template root not found: " + location);
+    }
+    try {
+      FileSystem fileSystem = FileSystems.newFileSystem(location, Map.of("create", "false"));
+      Path resourceDir = fileSystem.getPath("/" + resourceName);
+      Path path = Files.isDirectory(resourceDir) ? resourceDir : fileSystem.getPath("/");
+      return new TemplateRoot(path, fileSystem, TemplateManifest.load(path), null);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to open template archive: " + location, e);
+    }
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  /**
+   * Names of the templates, only the directory is listed
+   */
+  List<String> listTemplateNames() throws IOException {
+    if (manifest != null) {
+      return manifest.getTemplateNames();
+    }
+    try (Stream<Path> stream = Files.list(path)) {
+      return stream.filter(Files::isDirectory)
+        .map(p -> p.getFileName().toString().replace("/", ""))
+        .toList();
+    }
+  }
+
+  boolean contains(String templateName) {
+    return Files.isDirectory(path.resolve(templateName));
+  }
+
+  Path resolve(String templateName) {
+    return path.resolve(templateName);
+  }
+
+  /**
+   * Default variables of the template as JSON, {@code null} when the template has none
+   */
+  String readVariables(String templateName) throws IOException {
+    if (manifest != null) {
+      return manifest.getVariables(templateName);
+    }
+    Path variablesPath = resolve(templateName).resolve(".flexmodel").resolve("variables.json");
+    return Files.exists(variablesPath) ? Files.readString(variablesPath) : null;
+  }
+
+  TemplateIndex buildIndex(String templateName) throws IOException {
+    if (manifest != null) {
+      return TemplateIndex.build(templateName, resolve(templateName), manifest.getFiles(templateName));
+    }
+    return TemplateIndex.build(templateName, resolve(templateName));
+  }
+
+  /**
+   * Generator class compiled at build time from the same source, {@code null} when it must be compiled
+   */
+  Class<?> findPrecompiledGenerator(String templateName, TemplateIndex.TemplateFile file) {
+    if (manifest == null || generatorClassLoader == null) {
+      return null;
+    }
+    TemplateManifest.PrecompiledGenerator generator = manifest.getGenerator(templateName, file.relativePath());
+    if (generator == null || !generator.sourceHash().equals(file.hash())) {
+      return null;
+    }
+    try {
+      return generatorClassLoader.loadClass(generator.className());
+    } catch (ClassNotFoundException | LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * Whether file changes can be watched, only directories on the local file system support it
+   */
+  boolean isWatchable() {
+    return path.getFileSystem() == FileSystems.getDefault();
+  }
+
+  /**
+   * Loads the precompiled generators from {@link #GENERATOR_CLASSES}, everything else from the parent
+   */
+  private static class GeneratorClassLoader extends ClassLoader {
+
+    private GeneratorClassLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      try (InputStream in = getParent().getResourceAsStream(GENERATOR_CLASSES + name.replace('.', '/') + ".class")) {
+        if (in == null) {
+          throw new ClassNotFoundException(name);
+        }
+        byte[] bytes = in.readAllBytes();
+        return defineClass(name, bytes, 0, bytes.length);
+      } catch (IOException e) {
+        throw new ClassNotFoundException(name, e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (ownedFileSystem != null) {
+      ownedFileSystem.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return ownedFileSystem != null ? ownedFileSystem + "!" + path : path.toString();
+  }
+
+}
@@ -0,0 +1,88 @@
+package tech.wetech.flexmodel.codegen;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Text with {@code ${name}} placeholders, tokenized once into literal and placeholder segments.
+ * <p>
+ * Rendering follows {@code StringHelper.simpleRenderTemplate}: a placeholder is replaced by the value of the
+ * variable with the same name, placeholders without a value are kept as they are.
+ *
+ * @author cjbi
+ */
+final class TemplateText {
+
+  private static final String PLACEHOLDER_START = "${";
+  private static final String PLACEHOLDER_END = "}";
+
+  private final List<Segment> segments;
+  private final int literalLength;
+
+  private TemplateText(List<Segment> segments) {
+    this.segments = segments;
+    this.literalLength = segments.stream()
+      .filter(segment -> !segment.placeholder())
+      .mapToInt(segment -> segment.text().length())
+      .sum();
+  }
+
+  static TemplateText compile(String text) {
+    List<Segment> segments = new ArrayList<>();
+    int position = 0;
+    while (position < text.length()) {
+      int start = text.indexOf(PLACEHOLDER_START, position);
+      int end = start < 0 ? -1 : text.indexOf(PLACEHOLDER_END, start + PLACEHOLDER_START.length());
+      if (end < 0) {
+        segments.add(new Segment(text.substring(position), false));
+        break;
+      }
+      if (start > position) {
+        segments.add(new Segment(text.substring(position, start), false));
+      }
+      segments.add(new Segment(text.substring(start + PLACEHOLDER_START.length(), end), true));
+      position = end + PLACEHOLDER_END.length();
+    }
+    return new TemplateText(List.copyOf(segments));
+  }
+
+  boolean hasPlaceholders() {
+    return segments.stream().anyMatch(Segment::placeholder);
+  }
+
+  String render(Map<String, ?> variables) {
+    StringBuilder sb = new StringBuilder(literalLength + 16 * segments.size());
+    render(variables, sb);
+    return sb.toString();
+  }
+
+  void render(Map<String, ?> variables, Appendable out) {
+    try {
+      for (Segment segment : segments) {
+        if (!segment.placeholder()) {
+          out.append(segment.text());
+          continue;
+        }
+        Object value = variables.get(segment.text());
+        if (value != null) {
+          out.append(value.toString());
+        } else {
+          out.append(PLACEHOLDER_START).append(segment.text()).append(PLACEHOLDER_END);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @param text        literal text, or the variable name of a placeholder
+   * @param placeholder whether the segment is a placeholder
+   */
+  private record Segment(String text, boolean placeholder) {
+  }
+
+}
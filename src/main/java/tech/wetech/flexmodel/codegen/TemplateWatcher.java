@@ -0,0 +1,170 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches a template root directory and reports the changed files per template.
+ * <p>
+ * Events are collected until the directory was quiet for a short moment, so an editor saving several files
+ * results in a single reload per template.
+ *
+ * @author cjbi
+ */
+class TemplateWatcher implements AutoCloseable {
+
+  private static final long QUIET_PERIOD_MILLIS = 200;
+
+  private final Logger log = LoggerFactory.getLogger(TemplateWatcher.class);
+
+  private final Path root;
+  private final Listener listener;
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+  /**
+   * Directories directly in the root, only these are templates
+   */
+  private final Set<String> templateNames = new HashSet<>();
+  private final Thread thread;
+
+  TemplateWatcher(Path root, Listener listener) throws IOException {
+    this.root = root;
+    this.listener = listener;
+    this.watchService = root.getFileSystem().newWatchService();
+    registerRecursively(root);
+    this.thread = new Thread(this::run, "codegen-template-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        Map<String, Set<Path>> changes = new HashMap<>();
+        WatchKey key = watchService.take();
+        while (key != null) {
+          collect(key, changes);
+          key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        changes.forEach((templateName, paths) -> {
+          try {
+            listener.templateChanged(templateName, paths);
+          } catch (RuntimeException e) {
+            log.error("Failed to reload template: {}", templateName, e);
+          }
+        });
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ClosedWatchServiceException ignored) {
+      // Closed on shutdown
+    }
+  }
+
+  private void collect(WatchKey key, Map<String, Set<Path>> changes) {
+    Path directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (directory == null) {
+        continue;
+      }
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        // Events were lost, reload every template below the directory
+        log.warn("Template watch events lost under: {}", directory);
+        addAll(directory, changes);
+        continue;
+      }
+      Path path = directory.resolve((Path) event.context());
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+        registerNewDirectory(path, changes);
+      }
+      addChange(path, changes);
+      if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && root.equals(path.getParent())) {
+        templateNames.remove(path.getFileName().toString());
+      }
+    }
+    if (!key.reset()) {
+      directories.remove(key);
+    }
+  }
+
+  private void registerNewDirectory(Path directory, Map<String, Set<Path>> changes) {
+    try {
+      registerRecursively(directory);
+      // Files may have been created before the directory was registered
+      addAll(directory, changes);
+    } catch (IOException e) {
+      log.warn("Failed to watch template directory: {}", directory, e);
+    }
+  }
+
+  private void addAll(Path directory, Map<String, Set<Path>> changes) {
+    try (Stream<Path> stream = Files.walk(directory)) {
+      for (Path path : stream.toList()) {
+        addChange(path, changes);
+      }
+    } catch (IOException e) {
+      log.warn("Failed to list template directory: {}", directory, e);
+    }
+  }
+
+  private void addChange(Path path, Map<String, Set<Path>> changes) {
+    Path relativePath = root.relativize(path);
+    if (relativePath.toString().isEmpty()) {
+      return;
+    }
+    String templateName = relativePath.getName(0).toString();
+    // Files directly in the root, e.g. a README or an editor swap file, belong to no template
+    if (relativePath.getNameCount() == 1 && !templateNames.contains(templateName)) {
+      return;
+    }
+    changes.computeIfAbsent(templateName, name -> new HashSet<>()).add(path);
+  }
+
+  private void registerRecursively(Path directory) throws IOException {
+    try (Stream<Path> stream = Files.walk(directory)) {
+      for (Path path : stream.filter(Files::isDirectory).toList()) {
+        WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        directories.put(key, path);
+        if (root.equals(path.getParent())) {
+          templateNames.add(path.getFileName().toString());
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      log.warn("Failed to close template watcher", e);
+    }
+    thread.interrupt();
+  }
+
+  @FunctionalInterface
+  interface Listener {
+    /**
+     * @param templateName name of the changed template, the template directory itself may have been deleted
+     * @param paths        changed files and directories of the template
+     */
+    void templateChanged(String templateName, Set<Path> paths);
+  }
+
+}
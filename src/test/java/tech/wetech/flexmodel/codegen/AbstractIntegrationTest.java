@@ -33,6 +33,7 @@ public class AbstractIntegrationTest {
 
   @AfterAll
   static void destroy() {
+    codeGenerationService.close();
   }
 
 }
@@ -0,0 +1,43 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The benchmark sources are only compiled in the {@code benchmark} profile, so its template parameter is read from
+ * the source file
+ *
+ * @author cjbi
+ */
+class BenchmarkTemplatesTest extends AbstractIntegrationTest {
+
+  private static final Path BENCHMARK_SOURCE =
+    Path.of("src/jmh/java/tech/wetech/flexmodel/codegen/CodeGenerationBenchmark.java");
+
+  private static final Pattern TEMPLATE_PARAM =
+    Pattern.compile("@Param\\(\\{([^}]*)}\\)\\s*private String templateName;");
+
+  @Test
+  void testBenchmarkCoversAllTemplates() throws IOException {
+    Matcher matcher = TEMPLATE_PARAM.matcher(Files.readString(BENCHMARK_SOURCE));
+    Assertions.assertTrue(matcher.find(), "templateName parameter not found in " + BENCHMARK_SOURCE);
+    List<String> benchmarked = Arrays.stream(matcher.group(1).split(","))
+      .map(value -> value.strip().replace("\"", ""))
+      .sorted()
+      .toList();
+    List<String> templates = codeGenerationService.getTemplates().stream()
+      .map(TemplateInfo::name)
+      .sorted()
+      .toList();
+    Assertions.assertEquals(templates, benchmarked, "Benchmark templates differ from the bundled templates");
+  }
+
+}
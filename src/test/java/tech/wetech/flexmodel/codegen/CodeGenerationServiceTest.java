@@ -1,11 +1,49 @@
 package tech.wetech.flexmodel.codegen;
 
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.zaxxer.hikari.HikariDataSource;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import tech.wetech.flexmodel.model.EntityDefinition;
+import tech.wetech.flexmodel.session.SessionFactory;
+import tech.wetech.flexmodel.sql.JdbcDataSourceProvider;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 /**
  * @author cjbi
@@ -37,4 +75,696 @@ class CodeGenerationServiceTest extends AbstractIntegrationTest {
 
 
   }
+
+  @Test
+  void testGeneratorClassesAreReused() {
+    codeGenerationService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>());
+    int cachedGenerators = codeGenerationService.getCachedGeneratorCount();
+    Assertions.assertTrue(cachedGenerators > 0);
+    codeGenerationService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>());
+    Assertions.assertEquals(cachedGenerators, codeGenerationService.getCachedGeneratorCount());
+  }
+
+  @Test
+  void testGeneratorClassesAreDroppedPerTemplate() {
+    try (CodeGenerationService service = new CodeGenerationService(sessionFactory)) {
+      service.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>());
+      int javaSdkClasses = service.getLoadedGeneratorClassCount();
+      Assertions.assertTrue(javaSdkClasses > 0);
+      service.generateCode(SCHEMA_NAME, "python_sdk", new HashMap<>());
+      int allClasses = service.getLoadedGeneratorClassCount();
+      Assertions.assertTrue(allClasses > javaSdkClasses);
+      service.invalidateGenerators("java_sdk");
+      Assertions.assertEquals(allClasses - javaSdkClasses, service.getLoadedGeneratorClassCount());
+      service.invalidateGenerators();
+      Assertions.assertEquals(0, service.getLoadedGeneratorClassCount());
+    }
+  }
+
+  @Test
+  void testCloseIsIdempotent() {
+    CodeGenerationService service = new CodeGenerationService(sessionFactory);
+    service.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>());
+    service.close();
+    Assertions.assertDoesNotThrow(service::close);
+  }
+
+  @Test
+  void testParallelGenerateCode() {
+    try (CodeGenerationService parallelService = new CodeGenerationService(sessionFactory,
+      CodeGenerationConfig.builder().setParallelism(4).build())) {
+      for (TemplateInfo template : codeGenerationService.getTemplates()) {
+        Path sequential = codeGenerationService.generateCode(SCHEMA_NAME, template.name(), new HashMap<>());
+        Path parallel = parallelService.generateCode(SCHEMA_NAME, template.name(), new HashMap<>());
+        Assertions.assertEquals(readTree(sequential), readTree(parallel));
+      }
+    }
+  }
+
+  @Test
+  void testVirtualThreadGenerateCode() {
+    try (CodeGenerationService virtualThreadService = new CodeGenerationService(sessionFactory,
+      CodeGenerationConfig.builder().setVirtualThreads(true).setParallelism(2).build())) {
+      for (TemplateInfo template : codeGenerationService.getTemplates()) {
+        Path sequential = codeGenerationService.generateCode(SCHEMA_NAME, template.name(), new HashMap<>());
+        Path virtual = virtualThreadService.generateCode(SCHEMA_NAME, template.name(), new HashMap<>());
+        Assertions.assertEquals(readTree(sequential), readTree(virtual));
+      }
+      // Virtual threads have no CPU time, rendering is measured on the worker pool instead
+      GenerationReport report = virtualThreadService.generateCodeWithReport(SCHEMA_NAME, "java_sdk", new HashMap<>())
+        .report();
+      Assertions.assertNull(report.cpuTime());
+      Assertions.assertTrue(report.phases().stream()
+        .filter(phase -> phase.phase().equals("generator"))
+        .allMatch(phase -> phase.cpuTime() == null));
+      Assertions.assertTrue(report.phases().stream()
+        .anyMatch(phase -> phase.phase().equals("render") && phase.cpuTime() != null));
+    }
+  }
+
+  @Test
+  void testStaticCompilationGenerateCode() {
+    try (CodeGenerationService staticService = new CodeGenerationService(sessionFactory,
+      CodeGenerationConfig.builder().setStaticCompilation(true).build())) {
+      for (TemplateInfo template : codeGenerationService.getTemplates()) {
+        Path dynamic = codeGenerationService.generateCode(SCHEMA_NAME, template.name(), new HashMap<>());
+        Path compiledStatically = staticService.generateCode(SCHEMA_NAME, template.name(), new HashMap<>());
+        Assertions.assertEquals(readTree(dynamic), readTree(compiledStatically));
+      }
+    }
+  }
+
+  @Test
+  void testTypedGeneratorIsCompiledStatically() throws IOException {
+    Path root = generatorTemplate("SummaryGenerator.groovy", """
+      import tech.wetech.flexmodel.codegen.AbstractGenerator
+      import tech.wetech.flexmodel.codegen.GenerationContext
+
+      import java.nio.file.Path
+
+      class SummaryGenerator extends AbstractGenerator {
+
+        String getTargetFile(GenerationContext context, String targetDirectory) {
+          return Path.of(targetDirectory, "summary.txt").toString()
+        }
+
+        void write(PrintWriter out, GenerationContext context) {
+          out.println("models: " + context.getModelClassList().size())
+        }
+      }
+      """);
+    try (CodeGenerationService staticService = new CodeGenerationService(sessionFactory, CodeGenerationConfig.builder()
+      .addTemplateRoot(root)
+      .setClasspathTemplates(false)
+      .setStaticCompilation(true)
+      .build())) {
+      Path path = staticService.generateCode(SCHEMA_NAME, "generated", new HashMap<>());
+      Assertions.assertTrue(Files.readString(path.resolve("summary.txt")).startsWith("models: "));
+      Assertions.assertEquals(1, staticService.getStaticallyCompiledGeneratorCount());
+    }
+  }
+
+  @Test
+  void testIncrementalGenerateCode() throws IOException {
+    try (CodeGenerationService incrementalService = new CodeGenerationService(sessionFactory,
+      CodeGenerationConfig.builder().setIncremental(true).build())) {
+      Path targetPath = Files.createTempDirectory("codegen-incremental");
+      incrementalService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>(), targetPath);
+      Assertions.assertTrue(Files.exists(GenerationManifest.location(targetPath)));
+      // The output holds generated files only
+      Assertions.assertFalse(Files.exists(targetPath.resolve(".flexmodel")));
+
+      Path pom = targetPath.resolve("pom.xml");
+      FileTime unchanged = FileTime.fromMillis(0);
+      Files.setLastModifiedTime(pom, unchanged);
+      incrementalService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>(), targetPath);
+      Assertions.assertEquals(unchanged, Files.getLastModifiedTime(pom));
+
+      incrementalService.generateCode(SCHEMA_NAME, "java_sdk", Map.of("version", "2.0.0"), targetPath);
+      Assertions.assertNotEquals(unchanged, Files.getLastModifiedTime(pom));
+    }
+  }
+
+  @Test
+  void testIncrementalGenerateCodeAfterModelChange() throws Exception {
+    // Relations point to earlier entities, with a density of 1 Entity1 references Entity0 and Entity2 none later
+    withSchema("incremental", SyntheticSchema.builder().setEntityCount(3).setRelationDensity(1).build(),
+      incrementalSessionFactory -> {
+        try (CodeGenerationService incrementalService = new CodeGenerationService(incrementalSessionFactory,
+          CodeGenerationConfig.builder().setIncremental(true).build())) {
+          Path targetPath = Files.createTempDirectory("codegen-incremental");
+          incrementalService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>(), targetPath);
+
+          editEntity(incrementalSessionFactory, "Entity2");
+          List<String> regenerated = regenerate(incrementalService, targetPath);
+          Assertions.assertFalse(regenerated.isEmpty());
+          Assertions.assertTrue(regenerated.stream().allMatch(path -> path.contains("Entity2")), regenerated.toString());
+
+          // Entity1 shows the relation target, its files are generated again too
+          editEntity(incrementalSessionFactory, "Entity0");
+          regenerated = regenerate(incrementalService, targetPath);
+          Assertions.assertTrue(regenerated.stream().anyMatch(path -> path.contains("Entity0")), regenerated.toString());
+          Assertions.assertTrue(regenerated.stream().anyMatch(path -> path.contains("Entity1")), regenerated.toString());
+          Assertions.assertTrue(regenerated.stream().noneMatch(path -> path.contains("Entity2")), regenerated.toString());
+        }
+      });
+  }
+
+  private static void editEntity(SessionFactory sessionFactory, String name) {
+    EntityDefinition entity = sessionFactory.getModels(SCHEMA_NAME).stream()
+      .filter(EntityDefinition.class::isInstance)
+      .map(EntityDefinition.class::cast)
+      .filter(definition -> definition.getName().equals(name))
+      .findFirst()
+      .orElseThrow();
+    entity.getFields().get(0).setComment("Edited " + System.nanoTime());
+  }
+
+  /**
+   * Generate incrementally again, return the files written by this run
+   */
+  private static List<String> regenerate(CodeGenerationService service, Path targetPath) throws IOException {
+    FileTime unchanged = FileTime.fromMillis(0);
+    try (Stream<Path> files = Files.walk(targetPath)) {
+      for (Path file : files.filter(Files::isRegularFile).toList()) {
+        Files.setLastModifiedTime(file, unchanged);
+      }
+    }
+    service.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>(), targetPath);
+    try (Stream<Path> files = Files.walk(targetPath)) {
+      List<String> regenerated = new ArrayList<>();
+      for (Path file : files.filter(Files::isRegularFile).toList()) {
+        if (!Files.getLastModifiedTime(file).equals(unchanged)) {
+          regenerated.add(targetPath.relativize(file).toString());
+        }
+      }
+      return regenerated;
+    }
+  }
+
+  @Test
+  void testGenerateCodeToArchive() throws IOException {
+    Path path = codeGenerationService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>());
+
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    codeGenerationService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>(), zip, ArchiveFormat.ZIP);
+    Map<String, String> zipTree = new TreeMap<>();
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()))) {
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        if (!entry.isDirectory()) {
+          zipTree.put(entry.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+      }
+    }
+    Map<String, String> files = new TreeMap<>(readTree(path));
+    files.values().removeIf("<dir>"::equals);
+    Assertions.assertEquals(files, zipTree);
+
+    ByteArrayOutputStream tarGz = new ByteArrayOutputStream();
+    codeGenerationService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>(), tarGz, ArchiveFormat.TAR_GZ);
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(tarGz.toByteArray()))) {
+      byte[] archive = in.readAllBytes();
+      Assertions.assertEquals(0, archive.length % 512);
+      Assertions.assertEquals("ustar", new String(archive, 257, 5, StandardCharsets.US_ASCII));
+    }
+  }
+
+  @Test
+  void testGenerateCodeToInMemoryFileSystem() throws IOException {
+    try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+         CodeGenerationService inMemoryService = new CodeGenerationService(sessionFactory,
+           CodeGenerationConfig.builder().setOutputRoot(fileSystem.getPath("/codegen")).build())) {
+      Path path = inMemoryService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>());
+      Assertions.assertSame(fileSystem, path.getFileSystem());
+      Path diskPath = codeGenerationService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>());
+      Assertions.assertEquals(readTree(diskPath), readTree(path));
+    }
+  }
+
+  @Test
+  void testModelSnapshotIsShared() {
+    ModelSnapshotCache modelSnapshotCache = new ModelSnapshotCache(sessionFactory);
+    ModelSnapshot snapshot = modelSnapshotCache.getSnapshot(SCHEMA_NAME, "com.example");
+    Assertions.assertFalse(snapshot.getModelClasses().isEmpty());
+    Assertions.assertSame(snapshot, modelSnapshotCache.getSnapshot(SCHEMA_NAME, "com.example"));
+    Assertions.assertNotSame(snapshot, modelSnapshotCache.getSnapshot(SCHEMA_NAME, "com.example.other"));
+    modelSnapshotCache.invalidate(SCHEMA_NAME);
+    Assertions.assertNotSame(snapshot, modelSnapshotCache.getSnapshot(SCHEMA_NAME, "com.example"));
+  }
+
+  @Test
+  void testModelEditedInPlaceIsRegenerated() throws Exception {
+    withSchema("edited", SyntheticSchema.builder().setEntityCount(3).build(), editedSessionFactory -> {
+      try (CodeGenerationService editedService = new CodeGenerationService(editedSessionFactory,
+        CodeGenerationConfig.builder().setResultCacheSize(16).build())) {
+        ModelSnapshotCache modelSnapshotCache = new ModelSnapshotCache(editedSessionFactory);
+        ModelSnapshot snapshot = modelSnapshotCache.getSnapshot(SCHEMA_NAME, "com.example");
+        Path output = editedService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>());
+        Assertions.assertEquals(output, editedService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>()));
+
+        EntityDefinition entity = editedSessionFactory.getModels(SCHEMA_NAME).stream()
+          .filter(EntityDefinition.class::isInstance)
+          .map(EntityDefinition.class::cast)
+          .findFirst()
+          .orElseThrow();
+        entity.getFields().get(0).setComment("Edited in place");
+
+        ModelSnapshot edited = modelSnapshotCache.getSnapshot(SCHEMA_NAME, "com.example");
+        Assertions.assertNotSame(snapshot, edited);
+        Assertions.assertNotEquals(snapshot.getSchemaVersion(), edited.getSchemaVersion());
+        Assertions.assertNotEquals(output, editedService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>()));
+      }
+    });
+  }
+
+  @Test
+  void testGenerateCodeWithReport() {
+    Map<String, Long> counters = new ConcurrentHashMap<>();
+    try (CodeGenerationService reportingService = new CodeGenerationService(sessionFactory,
+      CodeGenerationConfig.builder().setMetrics(new GenerationMetrics() {
+        @Override
+        public void increment(String name, long amount, Map<String, String> tags) {
+          counters.merge(name, amount, Long::sum);
+        }
+      }).build())) {
+      GenerationResult result = reportingService.generateCodeWithReport(SCHEMA_NAME, "java_sdk", new HashMap<>());
+      GenerationReport report = result.report();
+      Map<String, String> tree = readTree(result.path());
+      Assertions.assertEquals(tree.values().stream().filter(content -> !content.equals("<dir>")).count(),
+        report.filesWritten());
+      Assertions.assertTrue(report.bytesWritten() > 0);
+      Assertions.assertTrue(report.phases().stream().anyMatch(phase -> phase.phase().equals("generator")));
+      Assertions.assertTrue(report.phases().stream().anyMatch(phase -> phase.phase().equals("buildContext")));
+      Assertions.assertEquals(List.of(1), report.phases().stream()
+        .filter(phase -> phase.phase().equals("walk"))
+        .map(GenerationReport.PhaseTiming::count)
+        .toList());
+      Assertions.assertEquals(1, (long) counters.get("codegen.generations"));
+      Assertions.assertEquals(report.bytesWritten(), (long) counters.get("codegen.bytes.written"));
+    }
+  }
+
+  @Test
+  void testGenerateCodeRecordsFlightRecorderEvents() throws IOException {
+    Path recordingFile = Files.createTempFile("codegen", ".jfr");
+    GenerationReport report;
+    try (Recording recording = new Recording()) {
+      recording.enable("flexmodel.codegen.*");
+      recording.start();
+      report = codeGenerationService.generateCodeWithReport(SCHEMA_NAME, "java_sdk", new HashMap<>()).report();
+      recording.stop();
+      recording.dump(recordingFile);
+    }
+    List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+    Files.delete(recordingFile);
+    RecordedEvent generation = events.stream()
+      .filter(event -> event.getEventType().getName().equals("flexmodel.codegen.Generation"))
+      .findFirst().orElseThrow();
+    Assertions.assertEquals("java_sdk", generation.getString("template"));
+    Assertions.assertEquals(SCHEMA_NAME, generation.getString("datasource"));
+    Assertions.assertEquals(report.bytesWritten(), generation.getLong("bytesWritten"));
+    Assertions.assertTrue(events.stream()
+      .anyMatch(event -> event.getEventType().getName().equals("flexmodel.codegen.BuildContext")));
+    // Generators and copied files account for every byte of the generation
+    long unitBytes = events.stream()
+      .filter(event -> event.getEventType().getName().equals("flexmodel.codegen.Generator")
+        || event.getEventType().getName().equals("flexmodel.codegen.CopyFile"))
+      .mapToLong(event -> event.getLong("bytesWritten"))
+      .sum();
+    Assertions.assertEquals(report.bytesWritten(), unitBytes);
+  }
+
+  @Test
+  void testGenerateCodeAsync() throws Exception {
+    List<int[]> progress = new CopyOnWriteArrayList<>();
+    GenerationResult result = codeGenerationService.generateCodeAsync(SCHEMA_NAME, "java_sdk", new HashMap<>(),
+      (completedUnits, totalUnits) -> progress.add(new int[]{completedUnits, totalUnits})).get(60, TimeUnit.SECONDS);
+    Path expected = codeGenerationService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>());
+    Assertions.assertEquals(readTree(expected), readTree(result.path()));
+    int[] last = progress.stream().max(Comparator.comparingInt(units -> units[0])).orElseThrow();
+    Assertions.assertEquals(last[1], last[0]);
+  }
+
+  @Test
+  void testCancelGenerateCodeAsync() throws Exception {
+    Path outputRoot = Files.createTempDirectory("codegen-cancel");
+    try (CodeGenerationService cancellingService = new CodeGenerationService(sessionFactory,
+      CodeGenerationConfig.builder().setOutputRoot(outputRoot).build())) {
+      CountDownLatch firstUnit = new CountDownLatch(1);
+      CountDownLatch cancelled = new CountDownLatch(1);
+      CompletableFuture<GenerationResult> future = cancellingService.generateCodeAsync(SCHEMA_NAME, "java_sdk",
+        new HashMap<>(), (completedUnits, totalUnits) -> {
+          if (completedUnits == 1) {
+            firstUnit.countDown();
+            try {
+              cancelled.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+      Assertions.assertTrue(firstUnit.await(60, TimeUnit.SECONDS));
+      Assertions.assertTrue(future.cancel(true));
+      cancelled.countDown();
+      Assertions.assertThrows(CancellationException.class, future::join);
+      // The partial output is deleted in the background
+      long deadline = System.currentTimeMillis() + 5000;
+      while (true) {
+        try (Stream<Path> outputs = Files.walk(outputRoot)) {
+          if (outputs.noneMatch(path -> path.getFileName().toString().startsWith("output-"))) {
+            break;
+          }
+        }
+        Assertions.assertTrue(System.currentTimeMillis() < deadline, "Partial output not deleted in time");
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  @Test
+  void testGenerateCodeStream() throws Exception {
+    Map<String, String> files = new TreeMap<>();
+    CompletableFuture<Void> completed = new CompletableFuture<>();
+    codeGenerationService.generateCodeStream(SCHEMA_NAME, "java_sdk", new HashMap<>())
+      .subscribe(new Flow.Subscriber<>() {
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+          this.subscription = subscription;
+          subscription.request(1);
+        }
+
+        @Override
+        public void onNext(GeneratedFile file) {
+          Assertions.assertEquals(file.size(), file.content().remaining());
+          files.put(file.path(), StandardCharsets.UTF_8.decode(file.content()).toString());
+          // One file at a time, the generation waits for the subscriber
+          subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+          completed.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+          completed.complete(null);
+        }
+      });
+    completed.get(60, TimeUnit.SECONDS);
+
+    Path expected = codeGenerationService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>());
+    Map<String, String> expectedFiles = new TreeMap<>(readTree(expected));
+    expectedFiles.values().removeIf(content -> content.equals("<dir>"));
+    Assertions.assertEquals(expectedFiles, files);
+  }
+
+  @Test
+  void testGenerateCodeStreamBackPressure() throws Exception {
+    withLargeSchema(largeSessionFactory -> {
+      try (CodeGenerationService largeService = new CodeGenerationService(largeSessionFactory)) {
+        AtomicInteger completedUnits = new AtomicInteger();
+        AtomicInteger totalUnits = new AtomicInteger();
+        AtomicReference<Thread> generating = new AtomicReference<>();
+        CompletableFuture<Flow.Subscription> subscribed = new CompletableFuture<>();
+        CompletableFuture<Void> completed = new CompletableFuture<>();
+        largeService.generateCodeStream(SCHEMA_NAME, "java_sdk", new HashMap<>(), (done, total) -> {
+          generating.set(Thread.currentThread());
+          completedUnits.set(done);
+          totalUnits.set(total);
+        }).subscribe(new Flow.Subscriber<>() {
+          @Override
+          public void onSubscribe(Flow.Subscription subscription) {
+            // Requests nothing until the generation stalled
+            subscribed.complete(subscription);
+          }
+
+          @Override
+          public void onNext(GeneratedFile file) {
+          }
+
+          @Override
+          public void onError(Throwable throwable) {
+            completed.completeExceptionally(throwable);
+          }
+
+          @Override
+          public void onComplete() {
+            completed.complete(null);
+          }
+        });
+        Flow.Subscription subscription = subscribed.get(60, TimeUnit.SECONDS);
+        awaitBlockedInSubmit(generating, completed);
+        Assertions.assertTrue(totalUnits.get() > Flow.defaultBufferSize());
+        // Every unit writes at least one file, the generation waits for the files the subscriber did not take
+        Assertions.assertTrue(completedUnits.get() <= Flow.defaultBufferSize(), "Completed units: " + completedUnits);
+
+        subscription.request(Long.MAX_VALUE);
+        completed.get(60, TimeUnit.SECONDS);
+        Assertions.assertEquals(totalUnits.get(), completedUnits.get());
+      }
+    });
+  }
+
+  /**
+   * Wait until the generation thread is parked submitting a file the subscriber has no room for
+   */
+  private static void awaitBlockedInSubmit(AtomicReference<Thread> generating, CompletableFuture<Void> completed) {
+    while (true) {
+      Assertions.assertFalse(completed.isDone(), "Generation completed without waiting for the subscriber");
+      Thread thread = generating.get();
+      if (thread != null && thread.getState() == Thread.State.WAITING && Arrays.stream(thread.getStackTrace())
+        .anyMatch(frame -> frame.getClassName().equals(SubmissionPublisher.class.getName()))) {
+        return;
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  @Test
+  void testCancelGenerateCodeStream() throws Exception {
+    CompletableFuture<String> outcome = new CompletableFuture<>();
+    GenerationMetrics metrics = new GenerationMetrics() {
+      @Override
+      public void increment(String name, long amount, Map<String, String> tags) {
+        if (name.equals("codegen.generations")) {
+          outcome.complete(tags.get("outcome"));
+        }
+      }
+    };
+    AtomicInteger received = new AtomicInteger();
+    withLargeSchema(largeSessionFactory -> {
+      try (CodeGenerationService largeService = new CodeGenerationService(largeSessionFactory,
+        CodeGenerationConfig.builder().setMetrics(metrics).build())) {
+        largeService.generateCodeStream(SCHEMA_NAME, "java_sdk", new HashMap<>())
+          .subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+              this.subscription = subscription;
+              subscription.request(1);
+            }
+
+            @Override
+            public void onNext(GeneratedFile file) {
+              received.incrementAndGet();
+              subscription.cancel();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+          });
+        Assertions.assertEquals("cancelled", outcome.get(60, TimeUnit.SECONDS));
+      }
+    });
+    Assertions.assertEquals(1, received.get());
+  }
+
+  @Test
+  void testGenerateCodeForLargeSchema() throws Exception {
+    withLargeSchema(largeSessionFactory -> {
+      try (CodeGenerationService largeService = new CodeGenerationService(largeSessionFactory)) {
+        GenerationReport report = largeService.generateCodeWithReport(SCHEMA_NAME, "java_sdk", new HashMap<>()).report();
+        log.info("testGenerateCodeForLargeSchema, report: {}", report);
+        Assertions.assertTrue(report.failures().isEmpty());
+        Assertions.assertTrue(report.filesWritten() > 300);
+      }
+    });
+  }
+
+  /**
+   * Run the action against a synthetic schema of 300 entities, which generates more files than a stream buffers
+   */
+  private static void withLargeSchema(SchemaAction action) throws Exception {
+    withSchema("large", SyntheticSchema.builder()
+      .setEntityCount(300)
+      .setRelationDensity(1)
+      .setEnumCount(30)
+      .build(), action);
+  }
+
+  /**
+   * Run the action against the synthetic schema, loaded into an in-memory database of the given name
+   */
+  private static void withSchema(String databaseName, SyntheticSchema schema, SchemaAction action) throws Exception {
+    HikariDataSource dataSource = new HikariDataSource();
+    dataSource.setJdbcUrl("jdbc:sqlite:file:" + databaseName + "?mode=memory&cache=shared");
+    try {
+      SessionFactory schemaSessionFactory = SessionFactory.builder()
+        .setDefaultDataSourceProvider(new JdbcDataSourceProvider(SCHEMA_NAME, dataSource))
+        .build();
+      schema.load(schemaSessionFactory, SCHEMA_NAME);
+      action.run(schemaSessionFactory);
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  private interface SchemaAction {
+    void run(SessionFactory sessionFactory) throws Exception;
+  }
+
+  @Test
+  void testExternalTemplateRoots() throws IOException {
+    Path directoryRoot = Files.createTempDirectory("codegen-templates");
+    Path template = Files.createDirectories(directoryRoot.resolve("greeting/.flexmodel")).getParent();
+    Files.writeString(template.resolve(".flexmodel/variables.json"), "{\"name\": \"World\"}");
+    Files.writeString(template.resolve("README.md"), "Hello ${name}");
+
+    Path archiveRoot = Files.createTempDirectory("codegen-archive").resolve("templates.jar");
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archiveRoot))) {
+      zip.putNextEntry(new ZipEntry("templates/farewell/README.md"));
+      zip.write("Bye ${name}".getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+    }
+
+    try (CodeGenerationService externalService = new CodeGenerationService(sessionFactory, CodeGenerationConfig.builder()
+      .addTemplateRoot(directoryRoot)
+      .addTemplateRoot(archiveRoot)
+      .setClasspathTemplates(false)
+      .build())) {
+      Assertions.assertEquals(List.of("greeting"), externalService.getTemplates().stream().map(TemplateInfo::name).toList());
+      Path greeting = externalService.generateCode(SCHEMA_NAME, "greeting", new HashMap<>());
+      Assertions.assertEquals("Hello World", Files.readString(greeting.resolve("README.md")));
+      Path farewell = externalService.generateCode(SCHEMA_NAME, "farewell", Map.of("name", "World"));
+      Assertions.assertEquals("Bye World", Files.readString(farewell.resolve("README.md")));
+      Assertions.assertThrows(RuntimeException.class,
+        () -> externalService.generateCode(SCHEMA_NAME, "java_sdk", new HashMap<>()));
+    }
+  }
+
+  @Test
+  void testPassthroughFilesAreCopiedAsTheyAre() throws IOException {
+    Path root = Files.createTempDirectory("codegen-templates");
+    Path template = Files.createDirectories(root.resolve("assets/.flexmodel")).getParent();
+    Files.writeString(template.resolve(".flexmodel/variables.json"), "{\"name\": \"World\"}");
+    // Not UTF-8, a placeholder in it must not be rendered nor the bytes re-encoded
+    byte[] binary = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, (byte) 0xff, (byte) 0xc3, '(', '$', '{',
+      'n', 'a', 'm', 'e', '}'};
+    Files.write(template.resolve("logo.png"), binary);
+    // Text without placeholders keeps its BOM, line endings and missing trailing newline
+    byte[] text = "\uFEFFGrüße\r\nno placeholders $name {name}".getBytes(StandardCharsets.UTF_8);
+    Files.write(template.resolve("NOTICE.txt"), text);
+
+    try (CodeGenerationService service = new CodeGenerationService(sessionFactory, CodeGenerationConfig.builder()
+      .addTemplateRoot(root)
+      .setClasspathTemplates(false)
+      .build())) {
+      Path directory = service.generateCode(SCHEMA_NAME, "assets", new HashMap<>());
+      Assertions.assertArrayEquals(binary, Files.readAllBytes(directory.resolve("logo.png")));
+      Assertions.assertArrayEquals(text, Files.readAllBytes(directory.resolve("NOTICE.txt")));
+
+      Path targetPath = Files.createTempDirectory("codegen-assets");
+      service.generateCode(SCHEMA_NAME, "assets", new HashMap<>(), targetPath);
+      Assertions.assertArrayEquals(binary, Files.readAllBytes(targetPath.resolve("logo.png")));
+      Assertions.assertArrayEquals(text, Files.readAllBytes(targetPath.resolve("NOTICE.txt")));
+    }
+  }
+
+  @Test
+  void testSinkErrorsFailTheRun() throws IOException {
+    Path root = generatorTemplate("SummaryGenerator.groovy", """
+      import tech.wetech.flexmodel.codegen.AbstractGenerator
+      import tech.wetech.flexmodel.codegen.GenerationContext
+
+      import java.nio.file.Path
+
+      class SummaryGenerator extends AbstractGenerator {
+
+        @Override
+        String getTargetFile(GenerationContext context, String targetDirectory) {
+          return Path.of(targetDirectory, "summary.txt").toString()
+        }
+
+        @Override
+        void write(PrintWriter out, GenerationContext context) {
+          out.println "models: ${context.modelClassList.size()}"
+        }
+      }
+      """);
+    OutputStream broken = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("No space left on device");
+      }
+    };
+    try (CodeGenerationService service = new CodeGenerationService(sessionFactory, CodeGenerationConfig.builder()
+      .addTemplateRoot(root)
+      .setClasspathTemplates(false)
+      .build())) {
+      // Not a failure of the generator, the run fails instead of completing partially
+      Assertions.assertThrows(RuntimeException.class,
+        () -> service.generateCode(SCHEMA_NAME, "generated", new HashMap<>(), broken, ArchiveFormat.ZIP));
+    }
+  }
+
+  @Test
+  void testGeneratorCompilationErrorIsReported() throws IOException {
+    Path root = generatorTemplate("BrokenGenerator.groovy", "class BrokenGenerator {");
+    Files.writeString(root.resolve("generated/README.md"), "Hello");
+    try (CodeGenerationService service = new CodeGenerationService(sessionFactory, CodeGenerationConfig.builder()
+      .addTemplateRoot(root)
+      .setClasspathTemplates(false)
+      .build())) {
+      GenerationResult result = service.generateCodeWithReport(SCHEMA_NAME, "generated", new HashMap<>());
+      Assertions.assertEquals(1, result.report().failures().size());
+      GenerationFailure failure = result.report().failures().get(0);
+      Assertions.assertTrue(failure.generator().endsWith("BrokenGenerator.groovy"));
+      Assertions.assertNull(failure.model());
+      // The script source is not emitted as if it were generated
+      Assertions.assertEquals(Map.of("", "<dir>", "README.md", "Hello"), readTree(result.path()));
+    }
+  }
+
+  /**
+   * Template root with a single template "generated" consisting of the given generator
+   */
+  private static Path generatorTemplate(String fileName, String generatorSource) throws IOException {
+    Path root = Files.createTempDirectory("codegen-templates");
+    Path template = Files.createDirectories(root.resolve("generated/.flexmodel")).getParent();
+    Files.writeString(template.resolve(".flexmodel/variables.json"), "{}");
+    Files.writeString(template.resolve(fileName), generatorSource);
+    return root;
+  }
+
+  static Map<String, String> readTree(Path root) {
+    try (Stream<Path> paths = Files.walk(root)) {
+      Map<String, String> tree = new TreeMap<>();
+      for (Path path : paths.toList()) {
+        String relativePath = root.relativize(path).toString().replace("\\", "/");
+        tree.put(relativePath, Files.isDirectory(path) ? "<dir>" : Files.readString(path));
+      }
+      return tree;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 }
@@ -0,0 +1,34 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+/**
+ * @author cjbi
+ */
+class GenerationAdmissionTest {
+
+  @Test
+  void testRejectWhenQueueIsFull() {
+    GenerationAdmission admission = new GenerationAdmission(1, 0, Duration.ofSeconds(1));
+    try (GenerationAdmission.Permit ignored = admission.acquire()) {
+      Assertions.assertThrows(GenerationRejectedException.class, admission::acquire);
+    }
+    try (GenerationAdmission.Permit ignored = admission.acquire()) {
+      Assertions.assertEquals(0, admission.getAvailable());
+    }
+    Assertions.assertEquals(1, admission.getAvailable());
+  }
+
+  @Test
+  void testRejectAfterTimeout() {
+    GenerationAdmission admission = new GenerationAdmission(1, 1, Duration.ofMillis(50));
+    try (GenerationAdmission.Permit ignored = admission.acquire()) {
+      Assertions.assertThrows(GenerationRejectedException.class, admission::acquire);
+      Assertions.assertEquals(0, admission.getQueued());
+    }
+  }
+
+}
@@ -0,0 +1,153 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * @author cjbi
+ */
+class GenerationResultCacheTest {
+
+  private static GenerationResultCache.Key key(String templateName) {
+    return new GenerationResultCache.Key("system", templateName, "variables", "schema");
+  }
+
+  private static GenerationResult newOutput() {
+    return newOutput(List.of());
+  }
+
+  private static GenerationResult newOutput(List<GenerationFailure> failures) {
+    try {
+      return new GenerationResult(Files.createTempDirectory("codegen-result"), new GenerationReport("system",
+        "java_sdk", Duration.ZERO, Duration.ZERO, List.of(), 0, 0, 0, failures));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Run the request on a thread of its own
+   */
+  private static Thread request(CompletableFuture<Path> result, Supplier<Path> request) {
+    Thread thread = new Thread(() -> {
+      try {
+        result.complete(request.get());
+      } catch (Throwable e) {
+        result.completeExceptionally(e);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Wait until the request parks, i.e. it joined the generation in flight instead of running its own
+   */
+  private static void awaitJoined(Thread thread, CompletableFuture<Path> result) {
+    while (thread.getState() != Thread.State.WAITING) {
+      Assertions.assertFalse(result.isDone(), "Request did not join the generation in flight");
+      Thread.onSpinWait();
+    }
+  }
+
+  @Test
+  void testCoalesceInFlightRequests() throws Exception {
+    GenerationResultCache cache = new GenerationResultCache(0, Duration.ofMinutes(1));
+    AtomicInteger generations = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<Path> first = new CompletableFuture<>();
+    request(first, () -> cache.get(key("java_sdk"), () -> {
+      generations.incrementAndGet();
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return newOutput();
+    }));
+    started.await();
+    CompletableFuture<Path> second = new CompletableFuture<>();
+    awaitJoined(request(second, () -> cache.get(key("java_sdk"), () -> {
+      generations.incrementAndGet();
+      return newOutput();
+    })), second);
+    release.countDown();
+    Assertions.assertEquals(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+    Assertions.assertEquals(1, generations.get());
+  }
+
+  @Test
+  void testErrorsCompleteJoinedRequests() throws Exception {
+    GenerationResultCache cache = new GenerationResultCache(0, Duration.ofMinutes(1));
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<Path> first = new CompletableFuture<>();
+    request(first, () -> cache.get(key("java_sdk"), () -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      throw new StackOverflowError();
+    }));
+    started.await();
+    CompletableFuture<Path> second = new CompletableFuture<>();
+    awaitJoined(request(second, () -> cache.get(key("java_sdk"), GenerationResultCacheTest::newOutput)), second);
+    release.countDown();
+    ExecutionException firstError = Assertions.assertThrows(ExecutionException.class,
+      () -> first.get(10, TimeUnit.SECONDS));
+    Assertions.assertInstanceOf(StackOverflowError.class, firstError.getCause());
+    ExecutionException secondError = Assertions.assertThrows(ExecutionException.class,
+      () -> second.get(10, TimeUnit.SECONDS));
+    Assertions.assertInstanceOf(StackOverflowError.class, secondError.getCause());
+  }
+
+  @Test
+  void testLeastRecentlyUsedEviction() {
+    GenerationResultCache cache = new GenerationResultCache(2, Duration.ofMinutes(1));
+    Path javaSdk = cache.get(key("java_sdk"), GenerationResultCacheTest::newOutput);
+    cache.get(key("python_sdk"), GenerationResultCacheTest::newOutput);
+    Assertions.assertEquals(javaSdk, cache.get(key("java_sdk"), GenerationResultCacheTest::newOutput));
+    cache.get(key("typescript_sdk"), GenerationResultCacheTest::newOutput);
+    Assertions.assertEquals(2, cache.size());
+    Assertions.assertEquals(javaSdk, cache.get(key("java_sdk"), GenerationResultCacheTest::newOutput));
+  }
+
+  @Test
+  void testOutputsWithFailuresAreNotCached() {
+    GenerationResultCache cache = new GenerationResultCache(2, Duration.ofMinutes(1));
+    GenerationFailure failure = new GenerationFailure("Generator.groovy", "User", new IllegalStateException());
+    Path partial = cache.get(key("java_sdk"), () -> newOutput(List.of(failure)));
+    Assertions.assertEquals(0, cache.size());
+    Assertions.assertNotEquals(partial, cache.get(key("java_sdk"), GenerationResultCacheTest::newOutput));
+  }
+
+  @Test
+  void testExpiredAndDeletedOutputsAreNotReused() throws IOException {
+    GenerationResultCache expiring = new GenerationResultCache(2, Duration.ZERO);
+    Path first = expiring.get(key("java_sdk"), GenerationResultCacheTest::newOutput);
+    Assertions.assertNotEquals(first, expiring.get(key("java_sdk"), GenerationResultCacheTest::newOutput));
+
+    GenerationResultCache cache = new GenerationResultCache(2, Duration.ofMinutes(1));
+    Path output = cache.get(key("java_sdk"), GenerationResultCacheTest::newOutput);
+    Files.delete(output);
+    Assertions.assertNotEquals(output, cache.get(key("java_sdk"), GenerationResultCacheTest::newOutput));
+  }
+
+}
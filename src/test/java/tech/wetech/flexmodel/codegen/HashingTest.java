@@ -0,0 +1,31 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author cjbi
+ */
+class HashingTest {
+
+  @Test
+  void testVariablesHashIgnoresOrder() {
+    Map<String, Object> first = new LinkedHashMap<>();
+    first.put("a", "1");
+    first.put("b", Map.of("c", 2));
+    Map<String, Object> second = new LinkedHashMap<>();
+    second.put("b", Map.of("c", 2));
+    second.put("a", "1");
+    Assertions.assertEquals(Hashing.sha256(first), Hashing.sha256(second));
+  }
+
+  @Test
+  void testVariablesHashIsUnambiguous() {
+    Assertions.assertNotEquals(Hashing.sha256(Map.of("a", "b, c=d")), Hashing.sha256(Map.of("a", "b", "c", "d")));
+    Assertions.assertNotEquals(Hashing.sha256(Map.of("a", "1")), Hashing.sha256(Map.of("a", 1)));
+  }
+
+}
@@ -0,0 +1,105 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * @author cjbi
+ */
+class OutputStoreTest {
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean()) {
+      Assertions.assertTrue(System.currentTimeMillis() < deadline, "Condition not met in time");
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  void testDirectoriesAreUnique() throws Exception {
+    Path root = Files.createTempDirectory("codegen-store");
+    try (OutputStore store = new OutputStore(root, Duration.ofHours(1), Long.MAX_VALUE, Duration.ofHours(1))) {
+      Set<Path> directories = new HashSet<>();
+      for (int i = 0; i < 100; i++) {
+        Path directory = store.newDirectory();
+        Assertions.assertTrue(Files.isDirectory(directory));
+        directories.add(directory);
+      }
+      Assertions.assertEquals(100, directories.size());
+    }
+  }
+
+  @Test
+  void testExpiredDirectoriesAreDeleted() throws Exception {
+    Path root = Files.createTempDirectory("codegen-store");
+    try (OutputStore store = new OutputStore(root, Duration.ZERO, Long.MAX_VALUE, Duration.ofMillis(20))) {
+      Path directory = store.newDirectory();
+      Files.writeString(directory.resolve("README.md"), "hello");
+      store.complete(directory);
+      await(() -> !Files.exists(directory));
+      Assertions.assertEquals(0, store.size());
+      Assertions.assertEquals(0, store.getTotalBytes());
+    }
+  }
+
+  @Test
+  void testOnlyAbandonedDirectoriesAreAdopted() throws Exception {
+    Path root = Files.createTempDirectory("codegen-store");
+    Path abandoned = Files.createDirectories(root.resolve("store-1/output-1"));
+    Files.createFile(root.resolve("store-1/.lock"));
+    Path foreign = Files.createDirectories(root.resolve("reports"));
+    try (OutputStore live = new OutputStore(root, Duration.ofHours(1), Long.MAX_VALUE, Duration.ofHours(1))) {
+      Path liveDirectory = live.newDirectory();
+      live.complete(liveDirectory);
+      try (OutputStore store = new OutputStore(root, Duration.ZERO, Long.MAX_VALUE, Duration.ofMillis(20))) {
+        await(() -> !Files.exists(abandoned));
+        store.cleanup();
+        Assertions.assertTrue(Files.exists(liveDirectory));
+        Assertions.assertTrue(Files.exists(foreign));
+      }
+    }
+  }
+
+  @Test
+  void testStoresSharingRootUseOwnDirectories() throws Exception {
+    Path root = Files.createTempDirectory("codegen-store");
+    try (OutputStore first = new OutputStore(root, Duration.ofHours(1), Long.MAX_VALUE, Duration.ofHours(1));
+         OutputStore second = new OutputStore(root, Duration.ofHours(1), Long.MAX_VALUE, Duration.ofHours(1))) {
+      Set<Path> directories = new HashSet<>();
+      for (int i = 0; i < 100; i++) {
+        directories.add(first.newDirectory());
+        directories.add(second.newDirectory());
+      }
+      Assertions.assertEquals(200, directories.size());
+      Assertions.assertNotEquals(first.newDirectory().getParent(), second.newDirectory().getParent());
+    }
+  }
+
+  @Test
+  void testLeastRecentlyUsedDirectoryIsEvictedOverQuota() throws Exception {
+    Path root = Files.createTempDirectory("codegen-store");
+    try (OutputStore store = new OutputStore(root, Duration.ofHours(1), 10, Duration.ofHours(1))) {
+      Path first = store.newDirectory();
+      Files.writeString(first.resolve("a.txt"), "12345678");
+      Thread.sleep(5);
+      Path second = store.newDirectory();
+      Files.writeString(second.resolve("b.txt"), "12345678");
+      Thread.sleep(5);
+      store.touch(first);
+      store.complete(first);
+      store.complete(second);
+      await(() -> !Files.exists(second));
+      Assertions.assertTrue(Files.exists(first));
+      Assertions.assertEquals(8, store.getTotalBytes());
+    }
+  }
+
+}
@@ -0,0 +1,191 @@
+package tech.wetech.flexmodel.codegen;
+
+import tech.wetech.flexmodel.session.SessionFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Reproducible schema of arbitrary size for load and scale tests. The same settings always produce the same script.
+ *
+ * @author cjbi
+ */
+public class SyntheticSchema {
+
+  private static final String[] SCALAR_TYPES = {"String", "Int", "Long", "Boolean", "DateTime", "JSON"};
+
+  private final long seed;
+  private final int entityCount;
+  private final int minFields;
+  private final int maxFields;
+  private final double relationDensity;
+  private final int enumCount;
+
+  private SyntheticSchema(Builder builder) {
+    this.seed = builder.seed;
+    this.entityCount = builder.entityCount;
+    this.minFields = builder.minFields;
+    this.maxFields = builder.maxFields;
+    this.relationDensity = builder.relationDensity;
+    this.enumCount = builder.enumCount;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public int getEntityCount() {
+    return entityCount;
+  }
+
+  public int getEnumCount() {
+    return enumCount;
+  }
+
+  /**
+   * Render the schema as IDL script
+   */
+  public String toIdl() {
+    Random random = new Random(seed);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < entityCount; i++) {
+      sb.append("model Entity").append(i).append(" {\n");
+      sb.append("  id : Long @id @default(autoIncrement()),\n");
+      int fieldCount = minFields + random.nextInt(maxFields - minFields + 1);
+      for (int f = 0; f < fieldCount; f++) {
+        sb.append("  field").append(f).append("? : ");
+        int type = random.nextInt(SCALAR_TYPES.length + (enumCount > 0 ? 1 : 0));
+        if (type == SCALAR_TYPES.length) {
+          sb.append("Enum").append(random.nextInt(enumCount));
+        } else {
+          sb.append(SCALAR_TYPES[type]);
+          if (SCALAR_TYPES[type].equals("String")) {
+            sb.append(" @length(\"255\")");
+          }
+        }
+        sb.append(",\n");
+      }
+      // Relations point to earlier entities only, the whole part of the density is always added
+      int relationCount = i == 0 ? 0 : (int) relationDensity + (random.nextDouble() < relationDensity % 1 ? 1 : 0);
+      for (int r = 0; r < relationCount; r++) {
+        int target = random.nextInt(i);
+        sb.append("  relation").append(r).append("Id? : Long,\n");
+        sb.append("  relation").append(r).append("? : Entity").append(target)
+          .append(" @relation(localField: \"relation").append(r)
+          .append("Id\", foreignField: \"id\", cascadeDelete: \"false\"),\n");
+      }
+      sb.append("}\n");
+    }
+    for (int e = 0; e < enumCount; e++) {
+      sb.append("enum Enum").append(e).append(" {\n");
+      int constantCount = 2 + random.nextInt(5);
+      for (int c = 0; c < constantCount; c++) {
+        sb.append("  VALUE_").append(c).append(c < constantCount - 1 ? ",\n" : "\n");
+      }
+      sb.append("}\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Load the schema into the session factory. Scripts are loaded as resources, so the script is written to a temp
+   * directory that is put on the context class loader while loading.
+   */
+  public void load(SessionFactory sessionFactory, String schemaName) {
+    String idl = toIdl();
+    String scriptName = "synthetic-" + Hashing.sha256(idl).substring(0, 16) + ".idl";
+    Thread thread = Thread.currentThread();
+    ClassLoader previous = thread.getContextClassLoader();
+    Path directory = null;
+    try {
+      directory = Files.createTempDirectory("synthetic-schema");
+      Path script = Files.writeString(directory.resolve(scriptName), idl);
+      try (URLClassLoader loader = new URLClassLoader(new URL[]{directory.toUri().toURL()}, previous)) {
+        thread.setContextClassLoader(loader);
+        sessionFactory.loadScript(schemaName, scriptName);
+      } finally {
+        thread.setContextClassLoader(previous);
+        Files.deleteIfExists(script);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      if (directory != null) {
+        try {
+          Files.deleteIfExists(directory);
+        } catch (IOException ignored) {
+          // best effort, the directory lives in the system temp directory
+        }
+      }
+    }
+  }
+
+  public static class Builder {
+
+    private long seed = 42;
+
+    private int entityCount = 10;
+
+    private int minFields = 2;
+
+    private int maxFields = 10;
+
+    private double relationDensity = 0.5;
+
+    private int enumCount;
+
+    public Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public Builder setEntityCount(int entityCount) {
+      if (entityCount < 0) {
+        throw new IllegalArgumentException("Entity count must not be negative: " + entityCount);
+      }
+      this.entityCount = entityCount;
+      return this;
+    }
+
+    /**
+     * Number of fields per entity besides the id and relations, uniformly distributed between min and max
+     */
+    public Builder setFieldCount(int minFields, int maxFields) {
+      if (minFields < 0 || maxFields < minFields) {
+        throw new IllegalArgumentException("Invalid field count range: " + minFields + ".." + maxFields);
+      }
+      this.minFields = minFields;
+      this.maxFields = maxFields;
+      return this;
+    }
+
+    /**
+     * Average number of relations from an entity to earlier entities
+     */
+    public Builder setRelationDensity(double relationDensity) {
+      if (relationDensity < 0) {
+        throw new IllegalArgumentException("Relation density must not be negative: " + relationDensity);
+      }
+      this.relationDensity = relationDensity;
+      return this;
+    }
+
+    public Builder setEnumCount(int enumCount) {
+      if (enumCount < 0) {
+        throw new IllegalArgumentException("Enum count must not be negative: " + enumCount);
+      }
+      this.enumCount = enumCount;
+      return this;
+    }
+
+    public SyntheticSchema build() {
+      return new SyntheticSchema(this);
+    }
+  }
+
+}
@@ -0,0 +1,38 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author cjbi
+ */
+class SyntheticSchemaTest {
+
+  @Test
+  void testSameSeedProducesSameSchema() {
+    SyntheticSchema.Builder builder = SyntheticSchema.builder()
+      .setEntityCount(50)
+      .setFieldCount(1, 20)
+      .setRelationDensity(1.5)
+      .setEnumCount(5);
+    String idl = builder.build().toIdl();
+    Assertions.assertEquals(idl, builder.build().toIdl());
+    Assertions.assertNotEquals(idl, builder.setSeed(7).build().toIdl());
+  }
+
+  @Test
+  void testSchemaSize() {
+    String idl = SyntheticSchema.builder()
+      .setEntityCount(100)
+      .setFieldCount(3, 3)
+      .setRelationDensity(2)
+      .setEnumCount(10)
+      .build()
+      .toIdl();
+    Assertions.assertEquals(100, idl.split("model Entity", -1).length - 1);
+    Assertions.assertEquals(10, idl.split("enum Enum", -1).length - 1);
+    // Every entity but the first has exactly two relations
+    Assertions.assertEquals(2 * 99, idl.split("@relation", -1).length - 1);
+  }
+
+}
@@ -0,0 +1,43 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author cjbi
+ */
+class TemplateIndexTest {
+
+  @Test
+  void testFileTypes() throws IOException {
+    Path directory = Files.createTempDirectory("codegen-template");
+    Files.createDirectories(directory.resolve(".flexmodel"));
+    Files.writeString(directory.resolve(".flexmodel/variables.json"), "{}");
+    Files.writeString(directory.resolve("README.md"), "Hello ${name}");
+    Files.writeString(directory.resolve("LICENSE"), "No placeholders here");
+    // Latin-1 text is not valid UTF-8, the placeholder in it is not rendered
+    Files.write(directory.resolve("latin1.txt"), "Grüße ${name}".getBytes(StandardCharsets.ISO_8859_1));
+    Files.write(directory.resolve("logo.png"), new byte[]{(byte) 0x89, 'P', 'N', 'G', 0, '$', '{', 'x', '}'});
+    Files.writeString(directory.resolve("Generator.groovy"), "class Generator {}");
+
+    Map<String, TemplateIndex.TemplateFileType> types = new TreeMap<>();
+    for (TemplateIndex.TemplateFile file : TemplateIndex.build("test", directory).files()) {
+      types.put(file.relativePath(), file.type());
+    }
+    Assertions.assertEquals(Map.of(
+      "", TemplateIndex.TemplateFileType.DIRECTORY,
+      "README.md", TemplateIndex.TemplateFileType.STATIC,
+      "LICENSE", TemplateIndex.TemplateFileType.PASSTHROUGH,
+      "latin1.txt", TemplateIndex.TemplateFileType.PASSTHROUGH,
+      "logo.png", TemplateIndex.TemplateFileType.PASSTHROUGH,
+      "Generator.groovy", TemplateIndex.TemplateFileType.GENERATOR), types);
+  }
+
+}
@@ -0,0 +1,73 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * @author cjbi
+ */
+class TemplateManifestTest {
+
+  @Test
+  void testScanAndLoad() throws Exception {
+    Path root = Files.createTempDirectory("codegen-templates");
+    Path template = Files.createDirectories(root.resolve("greeting/.flexmodel")).getParent();
+    Files.writeString(template.resolve(".flexmodel/variables.json"), "{\"name\": \"World\"}");
+    Files.writeString(template.resolve("README.md"), "Hello ${name}");
+    Path generator = Files.createDirectories(template.resolve("src")).resolve("GreetingGenerator.groovy");
+    Files.writeString(generator, "class GreetingGenerator {}");
+    Files.createDirectories(root.resolve("empty"));
+    Path classes = Files.createTempDirectory("codegen-classes");
+    Files.write(classes.resolve("GreetingGenerator.class"), new byte[0]);
+
+    TemplateManifest.scan(root, classes).store(root);
+    TemplateManifest manifest = TemplateManifest.load(root);
+    Assertions.assertNotNull(manifest);
+    Assertions.assertEquals(List.of("empty", "greeting"), manifest.getTemplateNames());
+    Assertions.assertEquals("{\"name\": \"World\"}", manifest.getVariables("greeting"));
+    Assertions.assertNull(manifest.getVariables("empty"));
+    Assertions.assertEquals(List.of(), manifest.getFiles("empty"));
+
+    TemplateManifest.PrecompiledGenerator precompiled = manifest.getGenerator("greeting", "src/GreetingGenerator.groovy");
+    Assertions.assertEquals("GreetingGenerator", precompiled.className());
+    Assertions.assertEquals(Hashing.sha256(Files.readAllBytes(generator)), precompiled.sourceHash());
+
+    // The listed index matches the walked one
+    TemplateIndex walked = TemplateIndex.build("greeting", template);
+    TemplateIndex listed = TemplateIndex.build("greeting", template, manifest.getFiles("greeting"));
+    Assertions.assertEquals(walked.files().stream().map(TemplateIndex.TemplateFile::relativePath).toList(),
+      listed.files().stream().map(TemplateIndex.TemplateFile::relativePath).toList());
+  }
+
+  @Test
+  void testPackagedGenerator() throws Exception {
+    Path root = Files.createTempDirectory("codegen-templates");
+    Path generator = Files.createDirectories(root.resolve("greeting/src")).resolve("GreetingGenerator.groovy");
+    Files.writeString(generator, "package greeting\n\nclass GreetingGenerator {}");
+    Path classes = Files.createTempDirectory("codegen-classes");
+    Files.write(Files.createDirectories(classes.resolve("greeting")).resolve("GreetingGenerator.class"), new byte[0]);
+
+    TemplateManifest manifest = TemplateManifest.scan(root, classes);
+    Assertions.assertEquals("greeting.GreetingGenerator",
+      manifest.getGenerator("greeting", "src/GreetingGenerator.groovy").className());
+  }
+
+  @Test
+  void testGeneratorClassCollision() throws Exception {
+    Path root = Files.createTempDirectory("codegen-templates");
+    for (String templateName : List.of("first", "second")) {
+      Path generator = Files.createDirectories(root.resolve(templateName)).resolve("EntityGenerator.groovy");
+      Files.writeString(generator, "class EntityGenerator {}");
+    }
+    Path classes = Files.createTempDirectory("codegen-classes");
+
+    IllegalStateException e = Assertions.assertThrows(IllegalStateException.class,
+      () -> TemplateManifest.scan(root, classes));
+    Assertions.assertTrue(e.getMessage().contains("EntityGenerator"), e.getMessage());
+  }
+
+}
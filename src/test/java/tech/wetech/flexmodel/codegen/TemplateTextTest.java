@@ -0,0 +1,34 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+/**
+ * @author cjbi
+ */
+class TemplateTextTest {
+
+  @Test
+  void testRender() {
+    TemplateText text = TemplateText.compile("src/main/java/${path}/entity");
+    Assertions.assertTrue(text.hasPlaceholders());
+    Assertions.assertEquals("src/main/java/com/example/entity", text.render(Map.of("path", "com/example")));
+  }
+
+  @Test
+  void testKeepUnknownPlaceholders() {
+    TemplateText text = TemplateText.compile("const url = `${this.baseUrl}/${version}`; ${unclosed");
+    Assertions.assertEquals("const url = `${this.baseUrl}/1.0.0`; ${unclosed", text.render(Map.of("version", "1.0.0")));
+  }
+
+  @Test
+  void testPlainText() {
+    TemplateText text = TemplateText.compile("hello world");
+    Assertions.assertFalse(text.hasPlaceholders());
+    Assertions.assertEquals("hello world", text.render(Map.of()));
+    Assertions.assertEquals("", TemplateText.compile("").render(Map.of()));
+  }
+
+}
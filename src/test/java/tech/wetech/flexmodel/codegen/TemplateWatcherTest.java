@@ -0,0 +1,70 @@
+package tech.wetech.flexmodel.codegen;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author cjbi
+ */
+class TemplateWatcherTest {
+
+  @Test
+  void testChangesAreReportedPerTemplate() throws Exception {
+    Path root = Files.createTempDirectory("codegen-templates");
+    Path generator = Files.createDirectories(root.resolve("java_sdk/src")).resolve("Generator.groovy");
+    Files.writeString(generator, "class Generator {}");
+    BlockingQueue<Map.Entry<String, Set<Path>>> changes = new LinkedBlockingQueue<>();
+    try (TemplateWatcher ignored = new TemplateWatcher(root, (templateName, paths) ->
+      changes.add(Map.entry(templateName, paths)))) {
+      Files.writeString(generator, "class Generator { def x }");
+      Map.Entry<String, Set<Path>> change = changes.poll(10, TimeUnit.SECONDS);
+      Assertions.assertNotNull(change);
+      Assertions.assertEquals("java_sdk", change.getKey());
+      Assertions.assertTrue(change.getValue().contains(generator));
+
+      Path variables = Files.createDirectories(root.resolve("python_sdk/.flexmodel")).resolve("variables.json");
+      Files.writeString(variables, "{}");
+      change = changes.poll(10, TimeUnit.SECONDS);
+      Assertions.assertNotNull(change);
+      Assertions.assertEquals("python_sdk", change.getKey());
+    }
+  }
+
+  @Test
+  void testFilesInRootAreIgnored() throws Exception {
+    Path root = Files.createTempDirectory("codegen-templates");
+    Path variables = Files.createDirectories(root.resolve("java_sdk/.flexmodel")).resolve("variables.json");
+    Files.writeString(variables, "{}");
+    BlockingQueue<Map.Entry<String, Set<Path>>> changes = new LinkedBlockingQueue<>();
+    try (TemplateWatcher ignored = new TemplateWatcher(root, (templateName, paths) ->
+      changes.add(Map.entry(templateName, paths)))) {
+      Files.writeString(root.resolve("README.md"), "Templates");
+      Files.writeString(root.resolve(".README.md.swp"), "swap");
+      Files.writeString(variables, "{\"version\": \"1.0.0\"}");
+      Map.Entry<String, Set<Path>> change = changes.poll(10, TimeUnit.SECONDS);
+      Assertions.assertNotNull(change);
+      Assertions.assertEquals("java_sdk", change.getKey());
+      Assertions.assertNull(changes.poll(1, TimeUnit.SECONDS));
+
+      // A deleted template directory is still reported
+      Files.delete(variables);
+      Files.delete(variables.getParent());
+      Files.delete(root.resolve("java_sdk"));
+      // The deletions may be reported in more than one batch
+      do {
+        change = changes.poll(10, TimeUnit.SECONDS);
+        Assertions.assertNotNull(change);
+        Assertions.assertEquals("java_sdk", change.getKey());
+      } while (!change.getValue().contains(root.resolve("java_sdk")));
+    }
+  }
+
+}